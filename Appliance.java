@@ -0,0 +1,39 @@
+/**
+*   Module: Appliance.java
+*
+*   Description: The appliance information read from the export.xml in the root of an export.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.util.*;
+
+public class Appliance {
+	public String deviceName;
+	public String productId;
+	public String serialNum;
+	public String firmwareVer;
+	public String[] domains = new String[0];
+
+	// The gateways of each domain in domain order. Only filled in by the callers that need to keep
+	// the whole appliance in memory, createInventory() writes each domain out as it goes.
+	public Map<String, List<Gateway>> gateways = new LinkedHashMap<String, List<Gateway>>();
+
+	public String toString() {
+		return deviceName;
+	}
+}
@@ -0,0 +1,335 @@
+/**
+*   Module: Catalog.java
+*
+*   Description: What to inventory in a domain: the object types, the attributes collected on them
+*                and the references that are followed to other objects. By default it is made from
+*                ConfigInventory.OBJECT_LIST, OBJECT_DETAILS, REFERENCE_LIST and REFERENCE_DETAILS,
+*                with -catalog it is read from a file so a type like APIGateway can be added without
+*                a recompile. Either way it is compiled into one set of hash lookups that DomainParser
+*                checks each element against, so 50 types cost the same single pass over the
+*                export.xml as 5. The catalog file looks like this:
+*
+*                   # Lines starting with # are comments.
+*                   [types]
+*                   MultiProtocolGateway
+*                   APIGateway = APICollection, UserAgent/@class
+*                   *
+*                   [details]
+*                   mAdminState, BackendUrl
+*                   [references]
+*                   FrontProtocol = LocalAddress, LocalPort
+*
+*                [types] lists a type per line, the attributes after "=" are only collected on that
+*                type. A "*" line inventories every other named object in the domain as well.
+*                [details] lists the attributes collected on every type.
+*                [references] lists the attributes that name another object, and what to collect on
+*                the object they name. They are added after the reference, i.e. "FrontProtocol.LocalPort".
+*
+*                An attribute is the tag name of an element anywhere in the object, like getTagValue().
+*                A path like "UserAgent/Proxy" only matches that element right under the object, and
+*                "UserAgent/@class" or "@intrinsic" is the value of an xml attribute.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.io.*;
+import java.util.*;
+
+public class Catalog {
+	// The catalog read with -catalog, null to use the lists in ConfigInventory
+	static Catalog loaded = null;
+
+	// What current() handed out last time and what it was made from, it is only compiled again when
+	// one of them changes. With -watch that is once for the life of the program, not once a domain.
+	static Catalog compiled = null;
+	static Object[] compiledFrom = null;
+
+	// What the catalog says.
+	String[] types;
+	boolean anyType;
+	String[] common;
+	Map<String, String[]> typeDetails = new HashMap<String, String[]>();
+	Map<String, String[]> references = new LinkedHashMap<String, String[]>();
+
+	// What it is compiled into.
+	Map<String, Rule> rules = new HashMap<String, Rule>();
+	Rule anyRule;
+	String[] referenceDetails;
+	Map<String, Integer> refDetailIndex = new HashMap<String, Integer>();
+
+	// How to collect one type of object.
+	static class Rule {
+		String type;
+		int order;						// The position of the type in [types], unlisted types come after
+		String[] details;				// The attributes in the order they are written out
+		Map<String, Integer> anywhere = new HashMap<String, Integer>();	// Tag names matched at any depth
+		Node root = new Node();			// Paths from the object element
+		int[][] follow;					// For each detail, the referenceDetails to add after it, or null
+	}
+
+	// One step of a path.
+	static class Node {
+		Map<String, Node> children;
+		int text = -1;					// The detail the text of the element is, if any
+		String[] attributes;			// The xml attributes of the element that are details
+		int[] attributeDetails;
+	}
+
+	/** current()
+	* The catalog for this run, with the details and references only when -d is on.
+	* return - Catalog - the catalog.
+	*/
+	public static synchronized Catalog current() {
+		Object[] from = {loaded, ConfigInventory.DETAILS, ConfigInventory.OBJECT_LIST, ConfigInventory.OBJECT_DETAILS,
+			ConfigInventory.REFERENCE_LIST, ConfigInventory.REFERENCE_DETAILS};
+		if (compiled != null && Arrays.equals(from, compiledFrom)) { return compiled; }
+		if (loaded != null) {
+			compiled = ConfigInventory.DETAILS ? loaded : loaded.typesOnly();
+		} else {
+			compiled = of(ConfigInventory.OBJECT_LIST, ConfigInventory.DETAILS ? ConfigInventory.OBJECT_DETAILS : null,
+				ConfigInventory.REFERENCE_LIST, ConfigInventory.REFERENCE_DETAILS);
+		}
+		compiledFrom = from;
+		return compiled;
+	}
+
+	/** of(String[], String[], String[], String[])
+	* Make a catalog from lists like the ones in ConfigInventory.
+	* param - types - the object types.
+	* param - details - the attributes collected on every type, or null for none.
+	* param - references - the attributes that name another object, or null to not follow them.
+	* param - referenceDetails - the attributes collected on the objects they name.
+	* return - Catalog - the compiled catalog.
+	*/
+	public static Catalog of(String[] types, String[] details, String[] references, String[] referenceDetails) {
+		Catalog catalog = new Catalog();
+		catalog.types = types;
+		catalog.common = (details == null) ? new String[0] : details;
+		if (details != null && references != null && referenceDetails != null) {
+			for (String reference : references) { catalog.references.put(reference, referenceDetails); }
+		}
+		catalog.compile();
+		return catalog;
+	}
+
+	/** load(String)
+	* Read a catalog file and use it for this run. OBJECT_LIST, OBJECT_DETAILS, REFERENCE_LIST and
+	* REFERENCE_DETAILS are set from it too, so everything that looks at them sees the same thing.
+	* param - path - the catalog file.
+	* return - Catalog - the compiled catalog.
+	*/
+	public static Catalog load(String path) throws IOException {
+		Catalog catalog = read(new BufferedReader(new InputStreamReader(new FileInputStream(path), "UTF-8")));
+		loaded = catalog;
+		ConfigInventory.OBJECT_LIST = catalog.types;
+		ConfigInventory.OBJECT_DETAILS = catalog.allDetails();
+		ConfigInventory.REFERENCE_LIST = catalog.references.keySet().toArray(new String[catalog.references.size()]);
+		ConfigInventory.REFERENCE_DETAILS = catalog.referenceDetails;
+		return catalog;
+	}
+
+	/** read(BufferedReader)
+	* Read a catalog, the reader is closed.
+	* return - Catalog - the compiled catalog.
+	*/
+	static Catalog read(BufferedReader reader) throws IOException {
+		Catalog catalog = new Catalog();
+		List<String> types = new ArrayList<String>();
+		List<String> common = new ArrayList<String>();
+		String section = null;
+		String line;
+		int number = 0;
+		try {
+			while ((line = reader.readLine()) != null) {
+				number++;
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) { continue; }
+				if (line.startsWith("[") && line.endsWith("]")) {
+					section = line.substring(1, line.length() - 1).trim();
+					if (!section.equals("types") && !section.equals("details") && !section.equals("references")) {
+						throw new IOException("line "+number+": unknown section ["+section+"]");
+					}
+					continue;
+				}
+				if (section == null) { throw new IOException("line "+number+": \""+line+"\" is not in a [types], [details] or [references] section"); }
+				int eq = line.indexOf('=');
+				String name = (eq < 0) ? line : line.substring(0, eq).trim();
+				String[] list = (eq < 0) ? new String[0] : split(line.substring(eq + 1));
+				if (section.equals("details")) {
+					if (eq >= 0) { throw new IOException("line "+number+": [details] only lists attributes"); }
+					common.addAll(Arrays.asList(split(line)));
+				} else if (section.equals("types")) {
+					if (name.equals("*")) {
+						catalog.anyType = true;
+					} else if (!types.contains(name)) {
+						types.add(name);
+					}
+					if (list.length > 0) { catalog.typeDetails.put(name, list); }
+				} else {
+					if (list.length == 0) { throw new IOException("line "+number+": the reference "+name+" needs \"= attribute, ...\""); }
+					catalog.references.put(name, list);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		if (types.isEmpty() && !catalog.anyType) { throw new IOException("there are no [types] in the catalog"); }
+		catalog.types = types.toArray(new String[types.size()]);
+		catalog.common = common.toArray(new String[common.size()]);
+		catalog.compile();
+		return catalog;
+	}
+
+	/** compile()
+	* Build the rules that DomainParser matches elements against.
+	*/
+	void compile() {
+		// Every attribute that is collected on a referenced object gets one slot.
+		List<String> refDetails = new ArrayList<String>();
+		for (String[] list : references.values()) {
+			for (String detail : list) { if (!refDetails.contains(detail)) { refDetails.add(detail); } }
+		}
+		referenceDetails = refDetails.toArray(new String[refDetails.size()]);
+		for (int r = 0; r < referenceDetails.length; r++) { refDetailIndex.put(referenceDetails[r], r); }
+
+		for (int t = 0; t < types.length; t++) {
+			if (!rules.containsKey(types[t])) { rules.put(types[t], rule(types[t], t, typeDetails.get(types[t]))); }
+		}
+		anyRule = anyType ? rule("*", types.length, typeDetails.get("*")) : null;
+	}
+
+	/** rule(String, int, String[])
+	* Compile the rule for one type, the common details come first then the ones of the type.
+	*/
+	Rule rule(String type, int order, String[] own) {
+		Rule rule = new Rule();
+		rule.type = type;
+		rule.order = order;
+		List<String> details = new ArrayList<String>();
+		for (String detail : common) { if (!details.contains(detail)) { details.add(detail); } }
+		if (own != null) { for (String detail : own) { if (!details.contains(detail)) { details.add(detail); } } }
+		rule.details = details.toArray(new String[details.size()]);
+		rule.follow = new int[rule.details.length][];
+
+		for (int d = 0; d < rule.details.length; d++) {
+			String detail = rule.details[d];
+			String[] refs = references.get(detail);
+			if (refs != null) {
+				rule.follow[d] = new int[refs.length];
+				for (int r = 0; r < refs.length; r++) { rule.follow[d][r] = refDetailIndex.get(refs[r]); }
+			}
+			if (detail.indexOf('/') < 0 && !detail.startsWith("@")) {
+				if (!rule.anywhere.containsKey(detail)) { rule.anywhere.put(detail, d); }
+				continue;
+			}
+			// A path, the steps are elements and the last one can be an xml attribute.
+			Node node = rule.root;
+			String[] steps = detail.split("/");
+			for (int s = 0; s < steps.length; s++) {
+				String step = steps[s];
+				if (step.startsWith("@")) {
+					int n = (node.attributes == null) ? 0 : node.attributes.length;
+					node.attributes = Arrays.copyOf(node.attributes == null ? new String[0] : node.attributes, n + 1);
+					node.attributeDetails = Arrays.copyOf(node.attributeDetails == null ? new int[0] : node.attributeDetails, n + 1);
+					node.attributes[n] = step.substring(1);
+					node.attributeDetails[n] = d;
+					break;
+				}
+				if (node.children == null) { node.children = new HashMap<String, Node>(); }
+				Node child = node.children.get(step);
+				if (child == null) { child = new Node(); node.children.put(step, child); }
+				node = child;
+				if (s == steps.length - 1 && node.text < 0) { node.text = d; }
+			}
+		}
+		return rule;
+	}
+
+	/** rule(String)
+	* return - Rule - how to collect an object of the type, or null when it is not inventoried.
+	*/
+	Rule rule(String type) {
+		Rule rule = rules.get(type);
+		return (rule != null) ? rule : anyRule;
+	}
+
+	/** follows()
+	* return - boolean - true when references are followed to other objects.
+	*/
+	boolean follows() {
+		return referenceDetails.length > 0;
+	}
+
+	/** typesOnly()
+	* return - Catalog - the same types with no details, for a run without -d.
+	*/
+	Catalog typesOnly() {
+		Catalog catalog = new Catalog();
+		catalog.types = types;
+		catalog.anyType = anyType;
+		catalog.common = new String[0];
+		catalog.compile();
+		return catalog;
+	}
+
+	/** allDetails()
+	* return - String[] - every attribute collected on any type, the common ones first.
+	*/
+	String[] allDetails() {
+		List<String> list = new ArrayList<String>(Arrays.asList(common));
+		for (String type : types) { add(list, typeDetails.get(type)); }
+		add(list, typeDetails.get("*"));
+		return list.toArray(new String[list.size()]);
+	}
+
+	/** columns()
+	* The detail columns of a flat record, every attribute with the attributes of the object a
+	* reference names right after it, i.e. FrontProtocol, FrontProtocol.LocalAddress, FrontProtocol.LocalPort.
+	* return - String[] - the column names.
+	*/
+	public String[] columns() {
+		List<String> list = new ArrayList<String>();
+		for (String detail : allDetails()) {
+			list.add(detail);
+			String[] refs = references.get(detail);
+			if (refs != null) { for (String ref : refs) { list.add(detail+"."+ref); } }
+		}
+		return list.toArray(new String[list.size()]);
+	}
+
+	/** signature()
+	* return - String - everything that changes what is collected, for the -cache file.
+	*/
+	public String signature() {
+		StringBuilder sb = new StringBuilder(Arrays.toString(types)).append(anyType ? "|*" : "").append('|').append(Arrays.toString(common));
+		for (String type : types) { if (typeDetails.containsKey(type)) { sb.append('|').append(type).append('=').append(Arrays.toString(typeDetails.get(type))); } }
+		if (typeDetails.containsKey("*")) { sb.append("|*=").append(Arrays.toString(typeDetails.get("*"))); }
+		for (Map.Entry<String, String[]> ref : references.entrySet()) { sb.append('|').append(ref.getKey()).append("->").append(Arrays.toString(ref.getValue())); }
+		return sb.toString();
+	}
+
+	static void add(List<String> list, String[] details) {
+		if (details == null) { return; }
+		for (String detail : details) { if (!list.contains(detail)) { list.add(detail); } }
+	}
+
+	static String[] split(String list) {
+		List<String> names = new ArrayList<String>();
+		for (String name : list.split(",")) { if (name.trim().length() > 0) { names.add(name.trim()); } }
+		return names.toArray(new String[names.size()]);
+	}
+}
@@ -13,8 +13,34 @@
 *	2017-07-08 v1.0.0 Added auto extract and removal of extracted folders.
 *              v2.0.0 Added Configuration Details option to the data collected on each gateway
 *                     Added the ability to turn on debug from the command line
+*              v2.1.0 Added the -stream option to read the domain exports straight out of the
+*                     appliance export without extracting anything to tmpDir
+*              v2.2.0 Added the -threads option to work on several domains at the same time
+*              v2.3.0 Added the -fleet option to inventory a directory of appliance exports in one run
+*              v2.4.0 Added the -cache and -diff options to only read the domains that changed since the last run
+*              v2.5.0 Details now list every occurence, i.e. all of the Front Side Handlers, and each handler
+*                     is followed to its LocalAddress and LocalPort
+*              v3.0.0 The csv files are now RFC 4180, fields are separated by a plain comma and quoted when
+*                     needed, rows end in CRLF. Added the -gzip and -buffer options
+*              v3.1.0 Added the -format option for one flat record per gateway as JSON Lines or csv
+*              v3.1.1 Added a Maven build (pom.xml) and a JMH benchmark module (benchmarks/)
+*              v3.2.0 Added the -metrics and -jfr options for the time, bytes and allocation of each stage of each domain
+*              v3.3.0 The <files> section of a domain export.xml is skipped as it is read. Added the -maxmem option
+*              v3.4.0 Added the -catalog option to read the types and attributes to inventory from a file
+*              v3.5.0 Added the -pipeline and -queue options to read, parse and write the domains as stages joined
+*                     by a bounded queue. The extractor now uses BUFFER_SIZE instead of a 1 KB buffer
+*              v3.6.0 Added the -index option to keep the gateways of every run in an index, see InventoryIndex
+*              v3.7.0 Added the -watch and -http options to keep running and inventory the exports as they land
+*              v3.8.0 The root export.xml is read as a stream up to the end of the domain list. A domain with more than
+*                     one attribute no longer breaks the domain list
+*              v3.9.0 Added the -deps option to write everything each gateway refers to, directly or through other objects
+*              v3.10.0 Added the -compare option to find the gateways missing, extra or different between exports
+*              v3.11.0 Added -format parquet. A flat file with other columns than the run is no longer added to
+*              v3.11.1 The -jfr events moved to jfr/ and are compiled on their own for Java 11, everything else
+*                     builds and runs on Java 8 again
 *   KNOWN ISSUES:
 *              V2.0.0 Right now it only returns the first occurence of a detail, i.e. Front Side Handlers
+*                     (fixed in v2.5.0 for the -d details, getTagValue() itself still returns the first one)
 *
 *   Author: Ray Wilson
 *           DataPower Techincal Specialist
@@ -48,9 +74,11 @@ import java.util.stream.Collectors;
 import java.util.regex.*;
 import java.util.Enumeration;
 import java.util.zip.*;
+import java.util.concurrent.*;
 import java.text.SimpleDateFormat;
 import org.w3c.dom.*;
 import javax.xml.parsers.*;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 public class ConfigInventory {
@@ -59,10 +87,14 @@ public class ConfigInventory {
 	public static String csvFile = "";
 	public static boolean DEBUG = false;
 	public static boolean DETAILS = false;
-	public static String EXPORT_XML = "export.xml";
+	public static boolean STREAM = false;
+
+	// Number of domains worked on at the same time, set with -threads
+	public static int THREADS = 1;
 
-	// Max size of the array to store objects in, per domain
-	public static int MAX_GATEWAYS = 100;
+	// The zipFile is a directory or manifest of exports, see FleetInventory, set with -fleet
+	public static boolean FLEET = false;
+	public static String EXPORT_XML = "export.xml";
 
 	// Byte buffer size for the zip file extractor
 	public static int BUFFER_SIZE = 4096;
@@ -71,14 +103,31 @@ public class ConfigInventory {
 	// The list of objects we will search for. You can extend this list to include about an named object.
 	// in the export.xml files. Make sure you use the spelling of a declaration tag, not the class tag.
 	// Get the spelling from a tag that has a "name=" attribute and not the "class=" attribute.
+	// These lists are the default, -catalog reads them from a file instead, see Catalog.
 	public static String[] OBJECT_LIST = {"B2BGateway", "MultiProtocolGateway", "WebAppFW", "WSGateway", "XMLFirewallService"};
 
 	// =============================== OPTIONAL ATTRIBUTE LIST ===============================
 	// This is a list of attributes that we will try to collect on each obect up above, if it is not
 	// found then it will simply be ignored. That allow for the entry of tags that may or may not exist in
-	// all of the objecs you are looking for. See KNOWN ISSUES above!
+	// all of the objecs you are looking for. Every occurence of an attribute is collected.
 	public static String[] OBJECT_DETAILS = {"mAdminState", "XMLManager", "LocalAddress", "LocalPort", "FrontProtocol", "BackendUrl", "Type"};
 
+	// =============================== REFERENCE LIST ===============================
+	// Attributes from the list above that hold the name of another object, like a Front Side Handler.
+	// The object they name is looked up in the same domain and the REFERENCE_DETAILS found on it are
+	// added right after the attribute, i.e. "FrontProtocol.LocalPort".
+	public static String[] REFERENCE_LIST = {"FrontProtocol"};
+	public static String[] REFERENCE_DETAILS = {"LocalAddress", "LocalPort"};
+
+	// =============================== SKIP LIST ===============================
+	// Sections of a domain export.xml that never hold an object we look for. Their contents are dropped
+	// as the file is read, see PayloadFilter. The <files> section holds every local file of the domain
+	// base64 encoded and is most of the size of a big export.
+	public static String[] SKIP_LIST = {"files"};
+
+	// Set once finish() has closed off the run.
+	static boolean finished = false;
+
 	/** main()
 	*
 	* This is the "main" method that checks for command line arguments and
@@ -107,6 +156,33 @@ public class ConfigInventory {
     	  	System.out.println("          csvFile = Absolute path and name of the output csv file");
     	  	System.out.println("          -d      = Optional: When present adds the object details to the output");
     	  	System.out.println("          -debug  = Optional: When present generates verbose DEBUG messages in the console");
+    	  	System.out.println("          -stream = Optional: Read the domain exports straight from the zipFile, nothing is written to tmpDir");
+    	  	System.out.println("          -threads N = Optional: Work on N domains at the same time, the output is the same as with 1");
+    	  	System.out.println("          -pipeline = Optional: One thread reads and inflates the domains, -threads N parse them, and they are");
+    	  	System.out.println("                    written in order, see DomainPipeline");
+    	  	System.out.println("          -queue N = Optional: With -pipeline, the domains read ahead of the parsers (default twice -threads)");
+    	  	System.out.println("          -fleet  = Optional: zipFile is a directory of export zip files, or a file listing them one per line");
+    	  	System.out.println("                    and csvFile is one merged csv file with a Device column");
+    	  	System.out.println("          -parallel N = Optional: With -fleet or -watch, work on N appliances at the same time (default "+FleetInventory.PARALLEL+")");
+    	  	System.out.println("          -split  = Optional: With -fleet, csvFile is a directory and one csv file is written per device");
+    	  	System.out.println("          -cache dir = Optional: Keep the gateways of each domain in dir, unchanged domains are not read again");
+    	  	System.out.println("          -diff   = Optional: With -cache, print the gateways added, removed or changed since the cached run");
+    	  	System.out.println("          -gzip   = Optional: Gzip the csv output, .gz is added to the file name (a name ending in .gz does this too)");
+    	  	System.out.println("          -buffer KB = Optional: Size of the csv output buffer in KB (default "+CsvSink.BUFFER_KB+")");
+    	  	System.out.println("          -format F = Optional: csv (default), or one flat record per gateway as jsonl (JSON Lines)");
+    	  	System.out.println("                    or flat (csv with a column per attribute) or parquet (Apache Parquet)");
+    	  	System.out.println("          -metrics file = Optional: Write the time, bytes and allocation of each stage of each domain to file as JSON");
+    	  	System.out.println("          -jfr    = Optional: Record each domain and stage as a Java Flight Recorder event, when a recording is running");
+    	  	System.out.println("          -maxmem MB = Optional: Heap ceiling, with -threads or -parallel domains wait while the heap is near it");
+    	  	System.out.println("          -catalog file = Optional: Read the types and attributes to inventory from file, see Catalog.java");
+    	  	System.out.println("          -index dir = Optional: Add the gateways to the index in dir, query it with java InventoryIndex dir term...");
+    	  	System.out.println("          -compare = Optional: zipFile is a directory or list of exports and -cache files like -fleet, csvFile");
+    	  	System.out.println("                    gets the gateways missing, extra or different on each one, see InventoryDrift");
+    	  	System.out.println("          -deps file = Optional: Write everything each gateway refers to, directly or through other objects,");
+    	  	System.out.println("                    to file, see DependencyGraph");
+    	  	System.out.println("          -watch  = Optional: Keep running, zipFile is a directory and each export that lands in it is written");
+    	  	System.out.println("                    to its own file in the csvFile directory, see InventoryWatcher");
+    	  	System.out.println("          -http port = Optional: With -watch, answer /health and /metrics on http://localhost:port/");
     	  	System.out.println("          -h      = Optional: This message");
     	  	System.out.println(" ");
     	  	System.out.println("Example > java ConfigInventory /dir/IDGv720-A.zip /dir/dp-export/ /dir/IDGv720-A.csv");
@@ -119,8 +195,14 @@ public class ConfigInventory {
 				zipFile = arg[0];
 				tmpDir = arg[1];
 				csvFile = arg[2];
-				String result = createInventory();
+				InventoryMetrics.open();
+				MemoryCeiling.check();
+				DependencyGraph.open();
+				String result = InventoryWatcher.WATCH ? InventoryWatcher.watch(zipFile, tmpDir, csvFile)
+					: InventoryDrift.COMPARE ? InventoryDrift.compare(zipFile, tmpDir, csvFile)
+					: FLEET ? FleetInventory.createFleetInventory(zipFile, tmpDir, csvFile) : createInventory();
 				System.out.println(result);
+				finish();
 			} catch (Exception e) {
 				System.err.println(e.getMessage());
 				System.exit(0);
@@ -128,151 +210,329 @@ public class ConfigInventory {
 		}
 	}
 
+	/** finish()
+	* Close off the run, the -deps file is closed, the -metrics report written and the -index committed.
+	* It is only done once. With -watch the watcher does it as it stops, the JVM can be on its way out.
+	*/
+	static synchronized void finish() throws IOException {
+		if(finished) { return; }
+		finished = true;
+		String deps = DependencyGraph.close();
+		if(deps != null) { System.out.println("Dependencies written to "+deps); }
+		if(InventoryMetrics.REPORT != null) {
+			InventoryMetrics.writeReport();
+			System.out.println("Metrics written to "+InventoryMetrics.REPORT);
+		}
+		if(InventoryIndex.INDEX_DIR != null) {
+			int runs = InventoryIndex.commit(InventoryIndex.INDEX_DIR);
+			System.out.println(runs+" export"+(runs == 1 ? "" : "s")+" added to the index in "+InventoryIndex.INDEX_DIR);
+		}
+	}
+
 	/** createInventory()
 	*
 	* This is the module where the following happens:
-	*   1) The zip file from the DataPower Export is extracted
+	*   1) The zip file from the DataPower Export is extracted (or just opened when -stream is used)
 	*   2) Basic appliance information collected from export.xml in the root of the extract
 	*	3) A list of domains is read from the export.xml file in the root of the extract
 	*   4) For each domain in the list
-	*   5)    The zip file for that domain is extracted
-	*   6)    The export.xml file in that domain is examined and information on gateways collected.
-	*	7) All the upziped files and folders are removed. (still pending)
+	*   5)    The zip file for that domain is extracted (or read straight from the export when -stream is used)
+	*   6)    The export.xml file in that domain is parsed once and information on gateways collected.
+	*	7) All the upziped files and folders are removed.
+	* Steps 1 to 7 are done by inventory() below, this method writes what it finds to the csvFile.
 	*
 	* return - String - The results of the doWork opperation.
 	*/
 	public static String createInventory () {
 		if(DEBUG) {System.out.println("DEBUG :: Entering doWork");}
-		String outputFilename = csvFile;
-		File fout = new File(outputFilename);
-
+		String written = csvFile;
 		try {
-			// Create the output file if it does not exist.
-			if(!fout.exists()){
-				fout.createNewFile();
-				if(DEBUG){System.out.println("DEBUG :: Creating output file - " + outputFilename);}
+			written = writeInventory(zipFile, tmpDir, csvFile);
+		} catch (Exception ex) {
+			System.out.println(":: ERROR ::");
+			ex.printStackTrace();
+		}
+		return("Done. The file "+written+" has been created");
+	}
+
+	/** writeInventory(String, String, String)
+	* This is the method that writes the inventory of one appliance export to a csv file. Unlike
+	* createInventory() it does not catch anything, so the caller can tell an export failed.
+	* param - zip - the path to the DataPower export zip file.
+	* param - tmp - the path to the temporary directory ending with a "/".
+	* param - outputFilename - the path of the csv file, it is added to if it already exists.
+	* return - String - the path of the csv file written, it has .gz added when -gzip is used.
+	*/
+	public static String writeInventory(String zip, String tmp, String outputFilename) throws Exception {
+		if(DEBUG && !new File(outputFilename).exists()){System.out.println("DEBUG :: Creating output file - " + outputFilename);}
+		if(!RecordWriter.FORMAT.equals("csv")) {
+			// One flat record per gateway instead of the csv layout.
+			RecordWriter records = RecordWriter.open(outputFilename, true);
+			try {
+				inventory(zip, tmp, records);
+			} finally {
+				records.close();
 			}
-			// Output file handle for writing
-			BufferedWriter out = new BufferedWriter(new FileWriter(outputFilename,true));
+			return records.getPath();
+		}
+		// Output file handle for writing, it is only flushed at the end of each domain.
+		final CsvSink out = CsvSink.open(outputFilename, true);
+		try {
+			inventory(zip, tmp, new InventoryListener() {
+				public void appliance(Appliance appliance) throws IOException { writeHeader(out, appliance); }
+				public void domain(Appliance appliance, String domain, List<Gateway> gateways) throws IOException { writeDomain(out, domain, gateways); }
+			});
+		} finally {
+			// Hose keeping, Flush the buffer for the csvFile and close it.
+			out.close();
+		}
+		return out.getPath();
+	}
 
-			// Add the Inventory Date/Time to the top of the csv file
-			String timeStamp = new SimpleDateFormat("yyyy-MM-dd HH.mm.ss").format(new java.util.Date());
-			out.write("Inventory Date, "+timeStamp+"\n"); out.flush();
+	/** writeHeader(CsvSink, Appliance)
+	* This is the method that writes the appliance information at the top of the csv file.
+	* param - out - the csv file.
+	* param - appliance - the appliance information from the root export.xml.
+	*/
+	public static void writeHeader(CsvSink out, Appliance appliance) throws IOException {
+		// Add the Inventory Date/Time to the top of the csv file
+		String timeStamp = new SimpleDateFormat("yyyy-MM-dd HH.mm.ss").format(new java.util.Date());
+		out.row("Inventory Date", timeStamp);
+		out.row("Device Name", appliance.deviceName);
+		out.row("Product ID", appliance.productId);
+		out.row("Serial Number", appliance.serialNum);
+		out.row("Firmware Version", appliance.firmwareVer);
+
+		// Write the header for the list of gateways.
+		out.row();
+		if(DETAILS){
+			out.row("Domain", "Gateway Type", "Gateway Name", "Attribute", "Attribute Value");
+		} else {
+			out.row("Domain", "Gateway Type", "Gateway Name");
+		}
+		out.flush();
+	}
 
-			// Extract the main export file. It will contain multiple zip files with it for each domain
-			// on the appliance. We will unzip those later in the loop where we gather the gateway informaiton
-			unZipIt(zipFile, tmpDir);
+	/** writeDomain(CsvSink, String, List<Gateway>)
+	* This is the method that writes one domain and its gateways to the csv file.
+	* param - out - the csv file.
+	* param - domain - the domain name.
+	* param - gateways - the gateways in the domain.
+	*/
+	public static void writeDomain(CsvSink out, String domain, List<Gateway> gateways) throws IOException {
+		// Write out the domain name to the file with a blank line before it.
+		out.row();
+		out.row(domain);
+
+		for(Gateway gateway : gateways){
+			if(DEBUG){ System.out.println("DEBUG :: Working element "+ gateway); }
+			// Write the type and name of each gateway in the list out to the file.
+			out.row("", gateway.type, gateway.name);
+
+			// Print the details to the csv file, the ones that were not found are not in the list.
+			for(String[] detail : gateway.details){
+				if(DEBUG){ System.out.println("DEBUG :: "+detail[0]+" : -"+detail[1]+"-"); }
+				out.row("", "", "", detail[0], detail[1]);
+			}
+		}
+		// The domain is done, now is the time to push it to the file.
+		out.flush();
+	}
 
+	/** inventory(String, String, InventoryListener)
+	* This is the method that does steps 1 to 7 of createInventory() for one appliance export.
+	* The listener is told about the appliance first, then about each domain in the order of the
+	* domain list, even when -threads has the domains worked on at the same time.
+	* param - zip - the path to the DataPower export zip file.
+	* param - tmp - the path to the temporary directory ending with a "/", not used with -stream.
+	* param - listener - what to do with the results.
+	* return - Appliance - the appliance information from the root export.xml.
+	*/
+	public static Appliance inventory(String zip, final String tmp, InventoryListener listener) throws Exception {
+		// Extract the main export file. It will contain multiple zip files with it for each domain
+		// on the appliance. We will unzip those later in the loop where we gather the gateway informaiton
+		// In STREAM mode the export is only opened, the domain zip files are read out of it in the loop.
+		ZipFile export = null;
+		ExecutorService pool = null;
+		DomainPipeline pipeline = null;
+		InventoryIndex.Run indexRun = null;
+		// The time spent in each stage, null when neither -metrics, -jfr nor -debug is on.
+		final InventoryMetrics.Export metrics = InventoryMetrics.begin(zip);
+		try {
 			// ******
-			// Get the data we want from the root export file about the appliance itself.
+			// Get the data we want from the root export file about the appliance itself, and the list
+			// of domains on the appliance to process for gateway information. The file is only read up
+			// to the end of the <domains> list, see ExportHeader.
 			// ******
-			// Open the export file in the root folder to get some some of the data
-			String content = new Scanner(new File(tmpDir+EXPORT_XML)).useDelimiter("\\Z").next();
-			// commented out because it's too messy to leave even in DEBUG mode, unless you need it.
-			//if(DEBUG){ System.out.println("DEBUG :: XML FILE :"+content); 
-
-			// Get the Device Name and write it to the file.
-			String deviceName = getTagValue(content, "device-name");
-			out.write("Device Name, "+deviceName+"\n"); out.flush();
-			if(DEBUG){ System.out.println("DEBUG :: Device Name :"+ deviceName ); }
-
-			// Get the Product ID and write it to the file.
-			String productId = getTagValue(content, "product-id");
-			out.write("Product ID, "+productId+"\n"); out.flush();
-			if(DEBUG){ System.out.println("DEBUG :: Product ID  :"+ productId ); }
-
-			// Get the serial number and write it to the file.
-			String serialNum = getTagValue(content, "serial-number");
-			out.write("Serial Number, "+serialNum+"\n"); out.flush();
-			if(DEBUG){ System.out.println("DEBUG :: Serial No   :"+ serialNum ); }
-
-			// Get the firmware version level and write it to the file.
-			String firmwareVer = getTagValue(content, "firmware-version");
-			out.write("Firmware Version, "+firmwareVer+"\n"); out.flush();
-			if(DEBUG){ System.out.println("DEBUG :: Firmware    :"+ firmwareVer ); }
-
-			// Get a list of domains on the appliance to process for gateway information.
-			String domains = getTagValue(content, "domains");
-			// commented out because it's too messy to leave even in DEBUG mode, unless you need it.
-			//if(DEBUG){ System.out.println("DEBUG :: Domain List :"+ domains ); } 
-
-			String[] domainList = getDomains(domains);
-			// commented out because it's too messy to leave even in DEBUG mode, unless you need it.
-			//if(DEBUG){ for(int j=0;j<domainList.length;j++){ System.out.println("DEBUG :: Domain ["+j+"] = "+domainList[j]); } } 
-
-			// Write the header for the list of gateways.
-			if(DETAILS){
-				out.write("\n,\nDomain, Gateway Type, Gateway Name, Attribute, Attribute Value"); out.flush();
+			Appliance appliance;
+			InventoryMetrics.Stage unzip = InventoryMetrics.start("unzip");
+			if(STREAM || InventoryCache.CACHE_DIR != null) {
+				// The cache needs the zip directory of the export even when it is extracted.
+				export = new ZipFile(zip);
+			}
+			InputStream root;
+			if(STREAM) {
+				ZipEntry rootEntry = export.getEntry(EXPORT_XML);
+				if (rootEntry == null) { throw new FileNotFoundException(EXPORT_XML+" was not found in "+zip); }
+				root = new BufferedInputStream(export.getInputStream(rootEntry), BUFFER_SIZE);
 			} else {
-				out.write("\n,\nDomain, Gateway Type, Gateway Name"); out.flush();
+				unZipIt(zip, tmp);
+				// Open the export file in the root folder to get some some of the data
+				root = new BufferedInputStream(new FileInputStream(tmp+EXPORT_XML), BUFFER_SIZE);
+			}
+			try {
+				appliance = ExportHeader.read(root);
+			} finally {
+				root.close();
 			}
+			InventoryMetrics.end(unzip);
+			if(DEBUG){ System.out.println("DEBUG :: Device Name :"+ appliance.deviceName ); }
+			if(DEBUG){ System.out.println("DEBUG :: Product ID  :"+ appliance.productId ); }
+			if(DEBUG){ System.out.println("DEBUG :: Serial No   :"+ appliance.serialNum ); }
+			if(DEBUG){ System.out.println("DEBUG :: Firmware    :"+ appliance.firmwareVer ); }
+
+			String[] domainList = appliance.domains;
+			if(DEBUG){ System.out.println("DEBUG :: Number of Domains  :"+ domainList.length ); }
+			// commented out because it's too messy to leave even in DEBUG mode, unless you need it.
+			//if(DEBUG){ for(int j=0;j<domainList.length;j++){ System.out.println("DEBUG :: Domain ["+j+"] = "+domainList[j]); } } 
+			if(metrics != null) { metrics.appliance(appliance); }
+			listener.appliance(appliance);
+			// With -index the gateways are also spooled for InventoryIndex.commit() at the end of the program.
+			indexRun = InventoryIndex.record(appliance, zip);
 
 			// ******
 			// Now get the object information from each domain.
 			// ******
+			// With -cache, domains whose zip has the same CRC and size as last time are taken from the cache
+			// and never opened. The rest are worked on below.
+			InventoryCache cache = InventoryCache.open(appliance.deviceName);
+			ZipEntry[] domainEntries = new ZipEntry[domainList.length];
+			List<List<Gateway>> cached = new ArrayList<List<Gateway>>();
+			for(int k=0; k<domainList.length; k++) {
+				domainEntries[k] = (cache == null) ? null : export.getEntry(domainList[k]+".zip");
+				cached.add((cache == null) ? null : cache.lookup(domainList[k], domainEntries[k]));
+				if(metrics != null && cached.get(k) != null) { metrics.domain(domainList[k]).setCached(cached.get(k)); }
+			}
+			if(cache != null && DEBUG){ System.out.println("DEBUG :: "+cache.hits+" of "+domainList.length+" domains are unchanged and come from the cache"); }
+
+			// With more than one thread the domains are all handed to a pool of workers up front, then
+			// the results are passed on in the order of the domain list so the output is the same either way.
+			// With -pipeline a reader thread inflates the domains for THREADS parser threads instead, see DomainPipeline.
+			final ZipFile theExport = export;
+			List<Future<List<Gateway>>> pending = new ArrayList<Future<List<Gateway>>>();
+			if(DomainPipeline.PIPELINE) {
+				pipeline = DomainPipeline.start(metrics, export, tmp, domainList, cached);
+			} else if(THREADS > 1) {
+				pool = Executors.newFixedThreadPool(THREADS);
+			}
 			for(int k=0; k<domainList.length; k++) {
+				final String domain = domainList[k];
+				if(pool == null || cached.get(k) != null) { pending.add(null); continue; }
+				pending.add(pool.submit(new Callable<List<Gateway>>() {
+					public List<Gateway> call() throws Exception { return getDomainGateways(metrics, theExport, tmp, domain); }
+				}));
+			}
 
-				// Extract the zip file for this domain
-				String thisZipFile = tmpDir+domainList[k]+".zip";
-				String thisTmpDir = tmpDir+domainList[k]+"/";
-				unZipIt(thisZipFile, thisTmpDir);
-
-				// Read in the export.xml file for this domain.
-				String domainExportFile = thisTmpDir+"/"+EXPORT_XML;
-				File def = new File(domainExportFile);
-
-				// Create on big string from the export.xml file for this domain.
-				String domainContent = new Scanner(def).useDelimiter("\\Z").next();
-				
-				// Write out the domain name to the file with a blank line before it.
-				out.write(", \n"+domainList[k]+"\n"); out.flush();
-				
-				// Search the string for gateway names based on the list above, they will appear in that order.
-				for(int l=0; l< OBJECT_LIST.length; l++){
-					if(DEBUG){ System.out.println("DEBUG :: Searching for "+ OBJECT_LIST[l]); }
-
-					// The list of name attributes for each defined gateway the current search type.
-					String[] thisList = getGateways(def, OBJECT_LIST[l]);
-					if(DEBUG){ System.out.println("DEBUG :: theList has "+ thisList.length +" elements."); }
-
-					// Check to see if there are any gateways in the list.
-					if(thisList.length > 0){
-						for(int m=0; m<thisList.length; m++){
-							if(DEBUG){ System.out.println("DEBUG :: Working element "+ thisList[m]); }
-							// Write the type and name of each gateway in the list out to the file.
-							out.write(", "+ OBJECT_LIST[l] +", "+thisList[m]+"\n"); out.flush();
-                            
-                            if(DETAILS){
-                                // Get the element for the object, including all child elements.
-								if(DEBUG){ System.out.println("\n\nDEBUG :: Requesting Element: "+OBJECT_LIST[l]+" with the name "+thisList[m]); }
-                                String objectDetails = getTag(domainContent, OBJECT_LIST[l], thisList[m]);
-								// commented out because it's too messy to leave even in DEBUG mode, unless you need it.
-								//if(DEBUG){ System.out.println("DEBUG :: Returned this: "+objectDetails+"\n\n"); }
-
-								// For each element get the list of details
-                                for(int n=0; n<OBJECT_DETAILS.length; n++){
-                                    String tagValue = getTagValue(objectDetails, OBJECT_DETAILS[n]);
-									// If a detail is not found move to the next detail
-									if(tagValue.equals("NA")) { continue; }
-									if(DEBUG){ System.out.println("DEBUG :: "+OBJECT_DETAILS[n]+" : -"+tagValue+"-"); }
-									// Print the details to the csv file
-									out.write(", , , "+OBJECT_DETAILS[n]+", "+tagValue+"\n"); out.flush();
-								}
-                            }
-                        }
+			for(int k=0; k<domainList.length; k++) {
+				List<Gateway> gateways = cached.get(k);
+				if(gateways == null) {
+					if(pipeline != null) {
+						gateways = pipeline.take(k);
+					} else {
+						gateways = (pool == null) ? getDomainGateways(metrics, export, tmp, domainList[k]) : pending.get(k).get();
 					}
 				}
+				if(cache != null) { cache.put(domainList[k], domainEntries[k], gateways); }
+				InventoryMetrics.Stage write = InventoryMetrics.start(metrics, domainList[k], "write");
+				listener.domain(appliance, domainList[k], gateways);
+				if(indexRun != null) { indexRun.domain(domainList[k], gateways); }
+				DependencyGraph.write(appliance, domainList[k], gateways);
+				InventoryMetrics.end(write);
+				if(pipeline != null && cached.get(k) == null) { pipeline.written(k); }
 			}
-			// Hose keeping, Flush the buffer for the csvFile and close it.
-			out.flush();
-			out.close();
-			// Remove the extracted files
-			removeTmpDir(tmpDir);
-		} catch (Exception ex) {
-			System.out.println(":: ERROR ::");
-			ex.printStackTrace();
+
+			if(cache != null) {
+				if(InventoryCache.DIFF) { cache.printDiff(System.out, appliance.deviceName); }
+				cache.save();
+			}
+			if(indexRun != null) { indexRun.finish(); indexRun = null; }
+			return appliance;
+		} finally {
+			if(pool != null) { pool.shutdownNow(); }
+			if(pipeline != null) { pipeline.close(); }
+			// An export that failed part way through is not indexed.
+			if(indexRun != null) { indexRun.abort(); }
+			// Close the export if it was opened.
+			if(export != null) { export.close(); }
+			if(!STREAM) {
+				// Remove the extracted files
+				if(new File(tmp).exists()) { removeTmpDir(tmp); }
+			}
+			InventoryMetrics.end(metrics);
+		}
+	}
+
+	/** getDomainGateways(InventoryMetrics.Export, ZipFile, String, String)
+	* Same as getDomainGateways(ZipFile, String, String) below, once there is room under the -maxmem
+	* ceiling, with the time, bytes and allocation of the domain recorded when metrics are on.
+	* param - metrics - the numbers for the appliance export, or null when metrics are off.
+	*/
+	static List<Gateway> getDomainGateways(InventoryMetrics.Export metrics, ZipFile export, String tmp, String domain) throws Exception {
+		InventoryMetrics.Domain domainMetrics = (metrics == null) ? null : metrics.domain(domain);
+		List<Gateway> gateways = null;
+		MemoryCeiling.acquire(domain);
+		if(domainMetrics != null) { domainMetrics.enter(); }
+		try {
+			gateways = getDomainGateways(export, tmp, domain);
+			return gateways;
+		} finally {
+			if(domainMetrics != null) { domainMetrics.exit(gateways); }
+			MemoryCeiling.release();
+		}
+	}
+
+	/** getDomainGateways(ZipFile, String, String)
+	* This is the method that does the work for one domain. The domain export.xml is opened, either
+	* from the export when STREAM is on or by extracting the domain zip into tmpDir, and parsed once.
+	* It only touches things that belong to the one domain so it is safe to run on several threads.
+	* param - export - the open export zip file when STREAM is on, otherwise null.
+	* param - tmp - the temporary directory the export was extracted to when STREAM is off.
+	* param - domain - the name of the domain.
+	* return - List<Gateway> - the gateways in OBJECT_LIST order, with details when DETAILS is on.
+	*/
+	public static List<Gateway> getDomainGateways(ZipFile export, String tmp, String domain) throws Exception {
+		InputStream domainXml;
+		InventoryMetrics.Stage decompress = InventoryMetrics.start("decompress");
+		if(STREAM) {
+			// Stream the export.xml for this domain straight out of the domain zip inside the export.
+			domainXml = openZipEntry(export, domain+".zip", EXPORT_XML);
+			if(decompress != null) { InventoryMetrics.zipBytes(export.getEntry(domain+".zip").getSize()); }
+		} else {
+			// Extract the zip file for this domain
+			String thisZipFile = tmp+domain+".zip";
+			String thisTmpDir = tmp+domain+"/";
+			unZipIt(thisZipFile, thisTmpDir);
+			if(decompress != null) { InventoryMetrics.zipBytes(new File(thisZipFile).length()); }
+
+			// Read in the export.xml file for this domain.
+			String domainExportFile = thisTmpDir+"/"+EXPORT_XML;
+			domainXml = new BufferedInputStream(new FileInputStream(domainExportFile), BUFFER_SIZE);
 		}
-		return("Done. The file "+csvFile+" has been created");
+		InventoryMetrics.end(decompress);
+		// The <files> section and the like are dropped before the parser sees them.
+		domainXml = new PayloadFilter(InventoryMetrics.count(domainXml), SKIP_LIST);
+
+		// One pass over the export.xml collects every gateway in the catalog, and the details
+		// on each one when they are wanted, with the Front Side Handlers and other references
+		// followed. They come back in OBJECT_LIST order.
+		List<Gateway> gateways;
+		try {
+			gateways = DomainParser.parse(domainXml, Catalog.current());
+		} finally {
+			domainXml.close();
+		}
+		if(DEBUG){ System.out.println("DEBUG :: "+domain+" has "+ gateways.size() +" gateways."); }
+		return gateways;
 	}
 
 	/** checkArgs(String[])
@@ -304,6 +564,136 @@ public class ConfigInventory {
 					case "-debug":
 						DEBUG=true;			// Check for the DEBUG switch
 						break;
+					case "-stream":
+						STREAM=true;		// Check for the no extract switch
+						break;
+					case "-threads":		// Check for the number of worker threads, it takes a value
+						try {
+							THREADS = Integer.parseInt(arg[++j]);
+							if(THREADS < 1) { throw new NumberFormatException(); }
+						} catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+							System.out.println("EEROR :: switch -threads needs a number of threads of 1 or more");
+							valid=false;
+						}
+						break;
+					case "-pipeline":
+						DomainPipeline.PIPELINE=true;	// Check for the pipeline switch
+						break;
+					case "-queue":			// Check for the pipeline queue size, it takes a value
+						try {
+							DomainPipeline.QUEUE = Integer.parseInt(arg[++j]);
+							if(DomainPipeline.QUEUE < 1) { throw new NumberFormatException(); }
+						} catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+							System.out.println("EEROR :: switch -queue needs a number of domains of 1 or more");
+							valid=false;
+						}
+						break;
+					case "-fleet":
+						FLEET=true;			// Check for the many exports switch
+						break;
+					case "-parallel":		// Check for the number of appliances at once, it takes a value
+						try {
+							FleetInventory.PARALLEL = Integer.parseInt(arg[++j]);
+							if(FleetInventory.PARALLEL < 1) { throw new NumberFormatException(); }
+						} catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+							System.out.println("EEROR :: switch -parallel needs a number of appliances of 1 or more");
+							valid=false;
+						}
+						break;
+					case "-split":
+						FleetInventory.SPLIT=true;	// Check for the one csv file per device switch
+						break;
+					case "-cache":			// Check for the cache directory, it takes a value
+						if(j+1 < arg.length && arg[j+1].length() > 0) {
+							InventoryCache.CACHE_DIR = arg[++j];
+						} else {
+							System.out.println("EEROR :: switch -cache needs a directory");
+							valid=false;
+						}
+						break;
+					case "-diff":
+						InventoryCache.DIFF=true;	// Check for the print changes switch
+						break;
+					case "-format":			// Check for the output format, it takes a value
+						if(j+1 < arg.length && Arrays.asList(RecordWriter.FORMATS).contains(arg[j+1])) {
+							RecordWriter.FORMAT = arg[++j];
+						} else {
+							System.out.println("EEROR :: switch -format needs one of "+Arrays.toString(RecordWriter.FORMATS));
+							valid=false;
+						}
+						break;
+					case "-gzip":
+						CsvSink.GZIP=true;	// Check for the compressed output switch
+						break;
+					case "-buffer":			// Check for the output buffer size, it takes a value
+						try {
+							CsvSink.BUFFER_KB = Integer.parseInt(arg[++j]);
+							if(CsvSink.BUFFER_KB < 1) { throw new NumberFormatException(); }
+						} catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+							System.out.println("EEROR :: switch -buffer needs a size in KB of 1 or more");
+							valid=false;
+						}
+						break;
+					case "-metrics":		// Check for the metrics report file, it takes a value
+						if(j+1 < arg.length && arg[j+1].length() > 0) {
+							InventoryMetrics.REPORT = arg[++j];
+						} else {
+							System.out.println("EEROR :: switch -metrics needs a file name");
+							valid=false;
+						}
+						break;
+					case "-jfr":
+						InventoryMetrics.JFR=true;	// Check for the flight recorder events switch
+						break;
+					case "-maxmem":			// Check for the heap ceiling, it takes a value
+						try {
+							MemoryCeiling.MAX_MB = Integer.parseInt(arg[++j]);
+							if(MemoryCeiling.MAX_MB < 1) { throw new NumberFormatException(); }
+						} catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+							System.out.println("EEROR :: switch -maxmem needs a size in MB of 1 or more");
+							valid=false;
+						}
+						break;
+					case "-catalog":		// Check for the catalog file, it takes a value
+						try {
+							Catalog.load(arg[++j]);
+						} catch (IOException | ArrayIndexOutOfBoundsException ex) {
+							System.out.println("EEROR :: switch -catalog needs a catalog file: "+ex.getMessage());
+							valid=false;
+						}
+						break;
+					case "-index":			// Check for the index directory, it takes a value
+						if(j+1 < arg.length && arg[j+1].length() > 0) {
+							InventoryIndex.INDEX_DIR = arg[++j];
+						} else {
+							System.out.println("EEROR :: switch -index needs a directory");
+							valid=false;
+						}
+						break;
+					case "-compare":		// Compare the exports in zipFile, it needs the details
+						InventoryDrift.COMPARE = true;
+						DETAILS = true;
+						break;
+					case "-deps":			// Check for the dependency file, it takes a value
+						if(j+1 < arg.length && arg[j+1].length() > 0) {
+							DependencyGraph.DEPS = arg[++j];
+						} else {
+							System.out.println("EEROR :: switch -deps needs a file name");
+							valid=false;
+						}
+						break;
+					case "-watch":
+						InventoryWatcher.WATCH=true;	// Check for the watch switch
+						break;
+					case "-http":			// Check for the health endpoint port, it takes a value
+						try {
+							InventoryWatcher.PORT = Integer.parseInt(arg[++j]);
+							if(InventoryWatcher.PORT < 1 || InventoryWatcher.PORT > 65535) { throw new NumberFormatException(); }
+						} catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+							System.out.println("EEROR :: switch -http needs a port number");
+							valid=false;
+						}
+						break;
 					case "-h":				// Check for help switch
 						valid=false;
 						break;
@@ -344,49 +734,46 @@ public class ConfigInventory {
 	}
 
 	/** getDomains(String)
-	* This is method that gets the value of a given tag in an xml string.
-	* it only gets the first occurance so does not work on repeating elements.
-	* param - xml - a string containing xml.
-	* return - String[] - the value inside the tags.
+	* This is method that gets the domain names out of the <domains> list of the root export.xml.
+	* inventory() reads them with ExportHeader, this is for a list that is already in a string.
+	* param - xml - a string containing the <domain .../> elements.
+	* return - String[] - the name attribute of each domain, in order.
 	*/
 	public static String[] getDomains(String xml){
-		// This section is just to find the number of Domains.
-		String findStr = "name="; int lastIndex = 0; int domainCount = 0;
-		while (lastIndex != -1) {
-			lastIndex = xml.indexOf(findStr, lastIndex);
-			if (lastIndex != -1) { domainCount++; lastIndex += findStr.length(); }
-		}
-		if(DEBUG){ System.out.println("DEBUG :: Number of Domains  :"+ domainCount ); }
+		List<String> list = new ArrayList<String>();
+		// Only the name attribute counts, a domain can have others before or after it.
+		Matcher m = DOMAIN_NAME.matcher(xml);
+		while (m.find()) { list.add(m.group(2) != null ? m.group(2) : m.group(3)); }
+		if(DEBUG){ System.out.println("DEBUG :: Number of Domains  :"+ list.size() ); }
+		return list.toArray(new String[list.size()]);
+	}
 
-		String[] list = new String[domainCount];
-		String[] tmp = xml.split("/>");
-		// commented out because it's too messy to leave even in DEBUG mode.
-		// if(DEBUG){ for(int j=0; j<tmp.length; j++){ System.out.println("DEBUG :: Domain ["+j+"] = "+tmp[j]); } } 
+	static final Pattern DOMAIN_NAME = Pattern.compile("<domain\\b[^>]*?\\sname\\s*=\\s*(\"([^\"]*)\"|'([^']*)')");
 
-		Pattern p = Pattern.compile("\"([^\"]*)\"");
-		for(int k=0; k<tmp.length; k++){
-			Matcher m = p.matcher(tmp[k]);
-			while (m.find()) { list[k] = m.group(1); }
-		}
-		return list;
+	/** getGateways(File, String)
+	* This method gets the name attribute of all tags of the given name in an xml file.
+	* param - def - the export.xml file.
+	* param - type - a string containing a gateway type.
+	* return - String[] - the list names of each gateway of the given type.
+	*/
+	public static String[] getGateways(File def, String type) {
+		return getGateways(new InputSource(def.toURI().toString()), type);
 	}
 
-	/** getGateways(String, String)
-	* This method gets the name attribute of all tags of the given name in an xml string.
-	* param - xml - a string containing xml.
+	/** getGateways(InputSource, String)
+	* This method gets the name attribute of all tags of the given name in an xml source.
+	* param - src - the xml source.
 	* param - type - a string containing a gateway type.
 	* return - String[] - the list names of each gateway of the given type.
 	*/
-	public static String[] getGateways(File def, String type) {
-		// Since there is not really a max number of gateways, and I don't know how many there will be
-		// I'm assigning a value at of MAX_GATEWAYS ... if you are close you can edit it above.
-		// Empty enties are "trimmed/pruned" below.
-		String[] list = new String[MAX_GATEWAYS];
+	static String[] getGateways(InputSource src, String type) {
+		// There is not really a max number of gateways so the list grows as they are found.
+		List<String> list = new ArrayList<String>();
 		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
 		try {
 			// Creat and parse a document from the xml file
 			DocumentBuilder db = dbf.newDocumentBuilder();
-			Document doc = db.parse(def);
+			Document doc = db.parse(src);
 			doc.getDocumentElement().normalize();
 			// Get a list of all the nodes that match our gateway type
 			NodeList nodeList = doc.getElementsByTagName(type);
@@ -396,17 +783,15 @@ public class ConfigInventory {
 					Element el = (org.w3c.dom.Element) nodeList.item(j);
 					String gateway = el.getAttribute("name");
 					if(DEBUG){ System.out.println("DEBUG :: Found "+gateway); }
-					list[j] = gateway;
+					// Only the declaration has a name, references to the object do not.
+					if (gateway.length() > 0) { list.add(gateway); }
 				}
 			}
 		} catch (IOException | ParserConfigurationException | SAXException ex) {
 			System.out.println(":: ERROR ::");
 			ex.printStackTrace();
 		}
-
-		// This is to remove empty members of the array.
-		list = Arrays.stream(list).filter(s -> (s != null && s.length() > 0)).toArray(String[]::new);  
-		return list;
+		return list.toArray(new String[list.size()]);
 	}
 
 	/** upzipit(String, String)
@@ -422,14 +807,13 @@ public class ConfigInventory {
 			// Create an enumeration of all the items in the zip file
 			Enumeration<?> enu = zipFile.entries();
 
-			if(DEBUG) { System.out.printf("DEBUG :: Extracting: "+theZip); }
+			long entries = 0, bytes = 0;
 			// Extract all of the individual items
 			while (enu.hasMoreElements()) {
 				// Create a ZipEntry (the format of a zip file entry) from the enumeration
 				ZipEntry zipEntry = (ZipEntry) enu.nextElement();
 				// Get the name of the item (we will use is a few times)
 				String name = zipEntry.getName();
-				if(DEBUG) {	System.out.printf("Name: %-30s | Size: %8d | Compressed: %8d\n", name, zipEntry.getSize(), zipEntry.getCompressedSize()); }
 
 				// Create a folder if this time is a folder
 				File file = new File(theFolder+name);
@@ -442,21 +826,60 @@ public class ConfigInventory {
 				// Do the byte level extract of the compressed file.
 				InputStream is = zipFile.getInputStream(zipEntry);
 				FileOutputStream fos = new FileOutputStream(file);
-				byte[] bytes = new byte[1024];
+				byte[] buffer = new byte[BUFFER_SIZE];
 				int length;
-				while ((length = is.read(bytes)) >= 0) { fos.write(bytes, 0, length); }
+				while ((length = is.read(buffer)) >= 0) { fos.write(buffer, 0, length); bytes += length; }
 				// Close the streams used by the byte level extraction.
 				is.close();
 				fos.close();
+				entries++;
 			}
 			// Close the zip file.
 			zipFile.close();
+			// One line per zip, the time it took is in the -metrics report as the unzip and decompress stages.
+			if(DEBUG) { System.out.println("DEBUG :: Extracted "+entries+" files, "+bytes+" bytes from "+theZip); }
 		} catch (IOException ex) {
 			System.out.println(":: ERROR ::");
 			ex.printStackTrace();
 		}
 	}
 
+	/** openZipEntry(ZipFile, String, String)
+	* This is the method that opens an item of a zip file that is itself inside the export, i.e. the
+	* export.xml in a domain zip. The domain zip is streamed through a ZipInputStream so nothing is
+	* written to disk and only the item we want is inflated. The stream is handed back positioned at
+	* the start of the item so it can be fed straight to a parser. The caller must close it.
+	* param - zip - the open export zip file.
+	* param - name - the name of the inner zip file, i.e. "default.zip".
+	* param - innerName - the name of the item inside the inner zip file.
+	* return - InputStream - the uncompressed item.
+	*/
+	public static InputStream openZipEntry(ZipFile zip, String name, String innerName) throws IOException {
+		ZipEntry zipEntry = zip.getEntry(name);
+		if (zipEntry == null) { throw new FileNotFoundException(name+" was not found in "+zip.getName()); }
+		ZipInputStream zis = new ZipInputStream(new BufferedInputStream(zip.getInputStream(zipEntry), BUFFER_SIZE));
+		ZipEntry inner;
+		while ((inner = zis.getNextEntry()) != null) {
+			if(DEBUG) { System.out.printf("DEBUG :: Streaming: %s | Name: %-30s | Size: %8d\n", name, inner.getName(), inner.getSize()); }
+			if (inner.getName().equals(innerName)) { return zis; }
+		}
+		zis.close();
+		throw new FileNotFoundException(innerName+" was not found in "+name);
+	}
+
+	/** readFully(InputStream)
+	* Read everything that is left in a stream.
+	* param - is - the stream, it is not closed.
+	* return - byte[] - the bytes read.
+	*/
+	static byte[] readFully(InputStream is) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(BUFFER_SIZE);
+		byte[] bytes = new byte[BUFFER_SIZE];
+		int length;
+		while ((length = is.read(bytes)) >= 0) { bos.write(bytes, 0, length); }
+		return bos.toByteArray();
+	}
+
 	/** removeTmpDir(String)
 	* This is method that cleans up and removes all of the extracted files.
 	* param - tmpDir - a string containing the path to the tmpDir.
@@ -482,6 +905,8 @@ public class ConfigInventory {
     /** getElement(String, String, String)
      * This is method that gets the object xml string by name.
      * Then returns it to the main program as a seperate xml string.
+     * Each call splits the whole xml, the inventory itself gets every object of a domain in
+     * one pass with DomainParser instead.
      * param - xml - a string containing xml.
      * param - tagName - a string containg the tag name with out the "<" or ">".
      * param - objName - String with the "name" of the object as seen in the name attribute.
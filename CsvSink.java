@@ -0,0 +1,121 @@
+/**
+*   Module: CsvSink.java
+*
+*   Description: Writes the csv files. Fields are quoted the RFC 4180 way, so a gateway name or a
+*                BackendUrl with a comma or a quote in it stays in its own column, and rows end with
+*                CRLF. Output is buffered and only pushed to the file when the caller says a domain
+*                is done, or when it is closed. A file name ending in .gz, or the -gzip switch, has
+*                the output gzip compressed.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.io.*;
+import java.util.zip.*;
+
+public class CsvSink implements Closeable, Flushable {
+	// Size of the output buffer in KB, set with -buffer
+	public static int BUFFER_KB = 64;
+
+	// Gzip every csv file written and add .gz to the name if it is not there, set with -gzip
+	public static boolean GZIP = false;
+
+	static final String EOL = "\r\n";
+
+	Writer out;
+	String path;
+
+	/** open(String, boolean)
+	* Open a csv file for writing.
+	* param - path - the csv file, with -gzip ".gz" is added to it when it does not already end with it.
+	* param - append - true to add to the end of the file if it already exists.
+	* return - CsvSink - the open csv file.
+	*/
+	public static CsvSink open(String path, boolean append) throws IOException {
+		CsvSink sink = new CsvSink();
+		sink.path = outputPath(path);
+		sink.out = openWriter(sink.path, append);
+		return sink;
+	}
+
+	/** outputPath(String)
+	* The name a file will really be written to, with -gzip ".gz" is added when it is not already there.
+	*/
+	public static String outputPath(String path) {
+		return (GZIP && !path.endsWith(".gz")) ? path+".gz" : path;
+	}
+
+	/** openWriter(String, boolean)
+	* Open a buffered UTF-8 writer on a file, gzip compressed when the name ends in .gz. The other
+	* output formats use this too so they get the same buffering and compression.
+	* param - path - the file, as returned by outputPath().
+	* param - append - true to add to the end of the file if it already exists.
+	* return - Writer - the open file.
+	*/
+	public static Writer openWriter(String path, boolean append) throws IOException {
+		OutputStream os = new FileOutputStream(path, append);
+		// A gzip file that is added to just gets another gzip member, every gzip reader handles that.
+		if (path.endsWith(".gz")) { os = new GZIPOutputStream(os, ConfigInventory.BUFFER_SIZE); }
+		return new BufferedWriter(new OutputStreamWriter(os, "UTF-8"), BUFFER_KB * 1024);
+	}
+
+	/** row(String...)
+	* Write one row, each field is quoted if it needs to be. No fields writes an empty line.
+	*/
+	public void row(String... fields) throws IOException {
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0) { out.write(','); }
+			out.write(quote(fields[i]));
+		}
+		out.write(EOL);
+	}
+
+	/** flush()
+	* Push what has been buffered to the file. Call it at the end of a domain, not after every row.
+	*/
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		out.close();
+	}
+
+	/** getPath()
+	* return - String - the name of the file being written, with .gz on the end when -gzip added it.
+	*/
+	public String getPath() {
+		return path;
+	}
+
+	/** quote(String)
+	* Quote a field the RFC 4180 way. It is only quoted when it has a comma, quote, line break or a
+	* leading or trailing space in it, quotes inside it are doubled.
+	* param - field - the value, null is written as an empty field.
+	* return - String - the field ready to write.
+	*/
+	public static String quote(String field) {
+		if (field == null || field.length() == 0) { return ""; }
+		boolean needsQuotes = field.charAt(0) == ' ' || field.charAt(field.length() - 1) == ' ';
+		for (int i = 0; i < field.length() && !needsQuotes; i++) {
+			char c = field.charAt(i);
+			needsQuotes = c == ',' || c == '"' || c == '\r' || c == '\n';
+		}
+		if (!needsQuotes) { return field; }
+		return "\""+field.replace("\"", "\"\"")+"\"";
+	}
+}
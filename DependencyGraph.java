@@ -0,0 +1,204 @@
+/**
+*   Module: DependencyGraph.java
+*
+*   Description: The objects of one domain and the references between them, i.e. the XMLManager,
+*                policies, front side handlers, SSL profiles and crypto objects a gateway uses and
+*                the ones they use in turn. It is built by DomainParser in the same pass that
+*                collects the gateways, a reference is any element in an object with a class
+*                attribute, <XMLManager class="XMLManager">default</XMLManager>. Each object is kept
+*                once with the names it refers to, however many gateways share it.
+*
+*                A reference is only looked up the first time a walk reaches it and the object found
+*                is kept, so a shared object is resolved once for the whole domain. The closure of a
+*                gateway is a breadth first walk that marks what it has been through, so a cycle or
+*                an object reached many ways is only listed once, at the fewest references from the
+*                gateway. The graph is dropped once the closures are on the gateways.
+*
+*                With -deps file the closure of every gateway is written to file, one row per object:
+*                   Device, Domain, Gateway Type, Gateway Name, Depth, Referenced By Type,
+*                   Referenced By, Dependency Type, Dependency Name, Found
+*                Found is "no" for a reference to an object that is not in the domain export.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.io.*;
+import java.util.*;
+
+public class DependencyGraph {
+	// The file the closure of each gateway is written to, set with -deps. No graph is built when it is null.
+	public static String DEPS = null;
+
+	static CsvSink out = null;
+
+	// One object in the domain.
+	static class Node {
+		String type;
+		String name;
+		boolean found;				// false for a name that is referred to but not in the domain
+		List<String> references;	// {class, name} of each reference as read, null when there are none
+		Node[] targets;				// The references looked up, set the first time a walk reaches the object
+		int walk;					// The last walk that reached it
+		int depth;					// How many references from the gateway, for that walk
+	}
+
+	// The objects by type and name.
+	Map<String, Node> objects = new HashMap<String, Node>();
+	// The names referred to that are not in the domain, by class and name.
+	Map<String, Node> missing = new HashMap<String, Node>();
+	// One copy of each type name, there are far fewer types than objects.
+	Map<String, String> types = new HashMap<String, String>();
+	int walks = 0;
+
+	/** declare(String, String)
+	* An object declaration was read. A second declaration with the same type and name adds to the first.
+	* return - Node - the object, references are added to it with reference().
+	*/
+	Node declare(String type, String name) {
+		String key = DomainParser.key(type, name);
+		Node node = objects.get(key);
+		if (node == null) {
+			node = new Node();
+			node.type = type(type);
+			node.name = name;
+			node.found = true;
+			objects.put(key, node);
+		}
+		return node;
+	}
+
+	/** reference(Node, String, String)
+	* A reference was read inside an object, it is only looked up when a walk reaches it.
+	* param - from - the object it is in.
+	* param - type - the class attribute of the reference.
+	* param - name - the name of the object it refers to.
+	*/
+	void reference(Node from, String type, String name) {
+		if (from.references == null) { from.references = new ArrayList<String>(2); }
+		from.references.add(type(type));
+		from.references.add(name);
+	}
+
+	/** targets(Node)
+	* The objects a node refers to, looked up the first time and kept after that. A reference is only
+	* to the object of its class, another type with the same name is not it and it is not found.
+	*/
+	Node[] targets(Node node) {
+		if (node.targets != null) { return node.targets; }
+		int count = (node.references == null) ? 0 : node.references.size() / 2;
+		Node[] targets = new Node[count];
+		for (int r = 0; r < count; r++) {
+			String type = node.references.get(r * 2);
+			String name = node.references.get(r * 2 + 1);
+			String key = DomainParser.key(type, name);
+			Node target = objects.get(key);
+			if (target == null) {
+				target = missing.get(key);
+				if (target == null) {
+					target = new Node();
+					target.type = type;
+					target.name = name;
+					missing.put(key, target);
+				}
+			}
+			targets[r] = target;
+		}
+		node.references = null;
+		node.targets = targets;
+		return targets;
+	}
+
+	/** closure(String, String)
+	* Everything an object depends on, directly or through other objects.
+	* param - type - the type of the object, i.e. a gateway type.
+	* param - name - the name of the object.
+	* return - List<String[]> - one {depth, referenced by type, referenced by, type, name, found} per
+	*                           object in breadth first order, the object itself is not in it.
+	*/
+	List<String[]> closure(String type, String name) {
+		List<String[]> list = new ArrayList<String[]>();
+		Node root = objects.get(DomainParser.key(type, name));
+		if (root == null) { return list; }
+		int walk = ++walks;
+		root.walk = walk;
+		root.depth = 0;
+		ArrayDeque<Node> queue = new ArrayDeque<Node>();
+		queue.add(root);
+		while (!queue.isEmpty()) {
+			Node node = queue.poll();
+			for (Node target : targets(node)) {
+				if (target.walk == walk) { continue; }
+				target.walk = walk;
+				target.depth = node.depth + 1;
+				list.add(new String[] {Integer.toString(target.depth), node.type, node.name, target.type, target.name, target.found ? "yes" : "no"});
+				if (target.found) { queue.add(target); }
+			}
+		}
+		return list;
+	}
+
+	/** resolve(List<Gateway>)
+	* Put the closure of each gateway on it.
+	*/
+	void resolve(List<Gateway> gateways) {
+		for (Gateway gateway : gateways) { gateway.dependencies = closure(gateway.type, gateway.name); }
+	}
+
+	String type(String type) {
+		String known = types.get(type);
+		if (known == null) { types.put(type, type); known = type; }
+		return known;
+	}
+
+	/** open()
+	* Open the -deps file and write its header, the file is replaced.
+	*/
+	public static void open() throws IOException {
+		if (DEPS == null) { return; }
+		out = CsvSink.open(DEPS, false);
+		out.row("Device", "Domain", "Gateway Type", "Gateway Name", "Depth", "Referenced By Type", "Referenced By",
+			"Dependency Type", "Dependency Name", "Found");
+		out.flush();
+	}
+
+	/** write(Appliance, String, List<Gateway>)
+	* Write the closure of each gateway in a domain to the -deps file. With -fleet or -watch the
+	* domains of different appliances can come in any order, each row says which it is for.
+	*/
+	public static synchronized void write(Appliance appliance, String domain, List<Gateway> gateways) throws IOException {
+		if (out == null) { return; }
+		for (Gateway gateway : gateways) {
+			if (gateway.dependencies == null) { continue; }
+			for (String[] dependency : gateway.dependencies) {
+				out.row(appliance.deviceName, domain, gateway.type, gateway.name, dependency[0], dependency[1], dependency[2],
+					dependency[3], dependency[4], dependency[5]);
+			}
+		}
+		out.flush();
+	}
+
+	/** close()
+	* return - String - the path of the -deps file, or null when there is none.
+	*/
+	public static synchronized String close() throws IOException {
+		if (out == null) { return null; }
+		out.close();
+		String path = out.getPath();
+		out = null;
+		return path;
+	}
+}
@@ -0,0 +1,311 @@
+/**
+*   Module: DomainParser.java
+*
+*   Description: Single pass StAX parser for a domain export.xml. One sweep over the file picks up
+*                every object in the Catalog along with its details, so the cost of a domain is the
+*                size of the file no matter how many types we look for.
+*                Nothing but the objects we keep, and a few details of the objects they can refer
+*                to, is held in memory. With -deps the same pass also builds the DependencyGraph.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.io.*;
+import java.util.*;
+import javax.xml.stream.*;
+
+public class DomainParser {
+	// The most characters kept of a detail value, the rest is dropped as it is read. It is the most a
+	// spreadsheet cell holds, and keeps an embedded stylesheet or key in a detail from filling the heap.
+	public static int MAX_VALUE = 32767;
+
+	// One factory for every parse, it is only used to create readers once it is set up.
+	static final XMLInputFactory FACTORY = newFactory();
+
+	/** newFactory()
+	* Create the StAX factory. DTDs and external entities are turned off, an export never needs them.
+	* return - XMLInputFactory - the factory.
+	*/
+	static XMLInputFactory newFactory() {
+		XMLInputFactory xif = XMLInputFactory.newInstance();
+		xif.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		xif.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		xif.setProperty(XMLInputFactory.IS_COALESCING, false);
+		return xif;
+	}
+
+	/** parse(InputStream, String[], String[])
+	* Parse a domain export.xml and collect the named objects of the given types, without following
+	* references to other objects.
+	*/
+	public static List<Gateway> parse(InputStream in, String[] types, String[] details) throws XMLStreamException {
+		return parse(in, Catalog.of(types, details, null, null));
+	}
+
+	/** parse(InputStream, String[], String[], String[], String[])
+	* Parse a domain export.xml and collect the named objects of the given types.
+	* param - in - the export.xml, it is not closed.
+	* param - types - the object types to collect, i.e. ConfigInventory.OBJECT_LIST.
+	* param - details - the detail tags to collect on each object, or null for no details.
+	* param - references - the detail tags that name another object, or null to not follow them.
+	* param - referenceDetails - the detail tags to collect on the objects that are referenced.
+	* return - List<Gateway> - see parse(InputStream, Catalog).
+	*/
+	public static List<Gateway> parse(InputStream in, String[] types, String[] details, String[] references, String[] referenceDetails) throws XMLStreamException {
+		return parse(in, Catalog.of(types, details, references, referenceDetails));
+	}
+
+	/** parse(InputStream, Catalog)
+	* Parse a domain export.xml and collect the named objects the catalog lists. Each element is
+	* checked against the compiled catalog with a hash lookup or two, however many types it has.
+	* When references are followed, the same pass also keeps the referenceDetails of every other
+	* named object in the domain in a map by name. Once the file has been read each reference detail
+	* of a gateway, i.e. FrontProtocol, is looked up in that map and the details of the object it
+	* names are added after it as "FrontProtocol.LocalPort". There is no extra scan per reference.
+	* param - in - the export.xml, it is not closed.
+	* param - catalog - what to collect, see Catalog.current().
+	* return - List<Gateway> - the objects grouped in the order of the catalog types, then in the order
+	*                          they appear in the file. The types only found because of a "*" come
+	*                          last. Details are in the order of the catalog, every occurrence of a
+	*                          detail is kept in the order they appear.
+	*/
+	public static List<Gateway> parse(InputStream in, Catalog catalog) throws XMLStreamException {
+		return parse(in, catalog, DependencyGraph.DEPS != null);
+	}
+
+	/** parse(InputStream, Catalog, boolean)
+	* Same as parse(InputStream, Catalog) above, with the dependency closure of each gateway put on it
+	* when graph is true. Every named object in the domain is then kept with the names it refers to,
+	* see DependencyGraph.
+	*/
+	public static List<Gateway> parse(InputStream in, Catalog catalog, boolean graph) throws XMLStreamException {
+		boolean follow = catalog.follows();
+		Map<String, Integer> refDetailIndex = catalog.refDetailIndex;
+		int refCount = catalog.referenceDetails.length;
+		List<List<Gateway>> found = new ArrayList<List<Gateway>>();
+		for (int t = 0; t < catalog.types.length; t++) { found.add(new ArrayList<Gateway>()); }
+		Map<String, List<Gateway>> others = new LinkedHashMap<String, List<Gateway>>();
+
+		// The referenceDetails of every named object, by type and name and by just the name for
+		// references that do not say what class they are.
+		Map<String, String[]> objects = new HashMap<String, String[]>();
+		Map<String, String[]> objectsByName = new HashMap<String, String[]>();
+
+		// Every {value, class} of each detail of each gateway, kept until the references are followed.
+		Map<Gateway, List<List<String[]>>> gatewayValues = new IdentityHashMap<Gateway, List<List<String[]>>>();
+
+		Gateway current = null;		// The gateway we are inside of, if any
+		Catalog.Rule rule = null;	// How to collect it
+		String objectKey = null;	// The type and name of the named object we are inside of, if any
+		String objectName = null;
+		List<List<String[]>> values = null;	// Every {value, class} of each detail in the current gateway
+		String[] refValues = null;	// The first value of each referenceDetail in the current object
+		int depth = 0;				// How far below the current object element we are
+		Catalog.Node[] path = new Catalog.Node[16];	// The catalog path matched at each depth, if any
+		int[] capture = new int[2];	// The details the text being read is for
+		int captures = 0;
+		int refDetail = -1;			// The referenceDetail being read, if any
+		String detailClass = null;
+		int detailDepth = 0;
+		StringBuilder text = new StringBuilder();
+
+		// Every named object and what it refers to, when graph is true.
+		DependencyGraph dependencies = graph ? new DependencyGraph() : null;
+		DependencyGraph.Node object = null;	// The named object we are inside of in the graph
+		String referenceClass = null;	// The class of the reference being read, if any
+		int referenceDepth = 0;
+		StringBuilder referenceText = new StringBuilder();
+
+		InventoryMetrics.Stage parse = InventoryMetrics.start("parse");
+		XMLStreamReader xr = FACTORY.createXMLStreamReader(in);
+		try {
+			while (xr.hasNext()) {
+				switch (xr.next()) {
+					case XMLStreamConstants.START_ELEMENT:
+						if (objectKey == null) {
+							// Only the declaration has a name attribute, references to an object do not.
+							String name = xr.getAttributeValue(null, "name");
+							if (name == null || name.length() == 0) { break; }
+							String type = xr.getLocalName();
+							Catalog.Rule r = catalog.rule(type);
+							if (r == null && !follow && dependencies == null) { break; }
+							if (r != null) {
+								current = new Gateway(type, name);
+								rule = r;
+								if (r.order < found.size()) {
+									found.get(r.order).add(current);
+								} else {
+									List<Gateway> list = others.get(type);
+									if (list == null) { list = new ArrayList<Gateway>(); others.put(type, list); }
+									list.add(current);
+								}
+								values = new ArrayList<List<String[]>>();
+								for (int d = 0; d < r.details.length; d++) { values.add(new ArrayList<String[]>()); }
+								attributes(xr, r.root, values);
+							}
+							objectKey = key(type, name);
+							objectName = name;
+							refValues = follow ? new String[refCount] : null;
+							depth = 0;
+							path[0] = (r == null) ? null : r.root;
+							if (dependencies != null) { object = dependencies.declare(type, name); }
+						} else {
+							depth++;
+							if (depth == path.length) { path = Arrays.copyOf(path, depth * 2); }
+							String tag = xr.getLocalName();
+							Catalog.Node parent = path[depth - 1];
+							Catalog.Node node = (parent == null || parent.children == null) ? null : parent.children.get(tag);
+							path[depth] = node;
+							if (node != null && node.attributes != null) { attributes(xr, node, values); }
+							if (object != null && referenceClass == null) {
+								// A reference to another object, <XMLManager class="XMLManager">default</XMLManager>.
+								referenceClass = xr.getAttributeValue(null, "class");
+								referenceDepth = depth;
+								referenceText.setLength(0);
+							}
+							if (captures > 0 || refDetail >= 0) { break; }
+							if (current != null) {
+								Integer d = rule.anywhere.get(tag);
+								if (d != null) { capture[captures++] = d; }
+								if (node != null && node.text >= 0 && (d == null || node.text != d)) { capture[captures++] = node.text; }
+							}
+							Integer r = refDetailIndex.get(tag);
+							if (r != null && refValues[r] != null) { r = null; }
+							if (captures > 0 || r != null) {
+								refDetail = (r == null) ? -1 : r;
+								detailClass = xr.getAttributeValue(null, "class");
+								detailDepth = depth;
+								text.setLength(0);
+							}
+						}
+						break;
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.CDATA:
+						if ((captures > 0 || refDetail >= 0) && text.length() < MAX_VALUE) {
+							text.append(xr.getTextCharacters(), xr.getTextStart(), Math.min(xr.getTextLength(), MAX_VALUE - text.length()));
+						}
+						if (referenceClass != null && referenceText.length() < MAX_VALUE) {
+							referenceText.append(xr.getTextCharacters(), xr.getTextStart(), Math.min(xr.getTextLength(), MAX_VALUE - referenceText.length()));
+						}
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						if (objectKey == null) { break; }
+						if (depth == 0) {
+							// End of the object.
+							if (follow) {
+								objects.put(objectKey, refValues);
+								if (!objectsByName.containsKey(objectName)) { objectsByName.put(objectName, refValues); }
+							}
+							if (current != null) {
+								// Write out the details in the order they were asked for, references are followed below.
+								for (int d = 0; d < values.size(); d++) {
+									for (String[] value : values.get(d)) { current.addDetail(rule.details[d], value[0]); }
+								}
+								if (follow) { gatewayValues.put(current, values); }
+							}
+							current = null;
+							rule = null;
+							objectKey = null;
+							object = null;
+						} else {
+							if ((captures > 0 || refDetail >= 0) && depth == detailDepth) {
+								String value = text.toString().trim();
+								if (value.length() > 0) {
+									for (int c = 0; c < captures; c++) { values.get(capture[c]).add(new String[] {value, detailClass}); }
+									if (refDetail >= 0) { refValues[refDetail] = value; }
+								}
+								captures = 0;
+								refDetail = -1;
+							}
+							if (referenceClass != null && depth == referenceDepth) {
+								String value = referenceText.toString().trim();
+								if (value.length() > 0) { dependencies.reference(object, referenceClass, value); }
+								referenceClass = null;
+							}
+							path[depth] = null;
+							depth--;
+						}
+						break;
+					default:
+						break;
+				}
+			}
+		} finally {
+			xr.close();
+		}
+		InventoryMetrics.end(parse);
+
+		List<Gateway> list = new ArrayList<Gateway>();
+		for (List<Gateway> l : found) { list.addAll(l); }
+		for (List<Gateway> l : others.values()) { list.addAll(l); }
+		if (follow) {
+			InventoryMetrics.Stage lookup = InventoryMetrics.start("lookup");
+			resolve(list, gatewayValues, catalog, objects, objectsByName);
+			InventoryMetrics.end(lookup);
+		}
+		if (dependencies != null) {
+			InventoryMetrics.Stage lookup = InventoryMetrics.start("lookup");
+			dependencies.resolve(list);
+			InventoryMetrics.end(lookup);
+		}
+		// The details are final now, -compare works with the fingerprint of each gateway from here on.
+		if (InventoryDrift.COMPARE) { for (Gateway gateway : list) { gateway.fingerprint(); } }
+		return list;
+	}
+
+	/** attributes(XMLStreamReader, Catalog.Node, List)
+	* Collect the xml attributes of the current element that the catalog asks for, i.e. "UserAgent/@class".
+	*/
+	static void attributes(XMLStreamReader xr, Catalog.Node node, List<List<String[]>> values) {
+		if (node.attributes == null || values == null) { return; }
+		for (int a = 0; a < node.attributes.length; a++) {
+			String value = xr.getAttributeValue(null, node.attributes[a]);
+			if (value != null && value.trim().length() > 0) { values.get(node.attributeDetails[a]).add(new String[] {value.trim(), null}); }
+		}
+	}
+
+	/** resolve(List<Gateway>, Map, Catalog, Map, Map)
+	* Rebuild the details of each gateway with the details of the objects its references name added
+	* right after each reference. A reference with a class is looked up by class and name, only one
+	* without a class is looked up by just its name.
+	*/
+	static void resolve(List<Gateway> gateways, Map<Gateway, List<List<String[]>>> gatewayValues, Catalog catalog,
+			Map<String, String[]> objects, Map<String, String[]> objectsByName) {
+		for (Gateway gateway : gateways) {
+			List<List<String[]>> values = gatewayValues.get(gateway);
+			if (values == null) { continue; }
+			Catalog.Rule rule = catalog.rule(gateway.type);
+			gateway.details.clear();
+			for (int d = 0; d < values.size(); d++) {
+				for (String[] value : values.get(d)) {
+					gateway.addDetail(rule.details[d], value[0]);
+					int[] follow = rule.follow[d];
+					if (follow == null) { continue; }
+					String[] target = (value[1] == null) ? objectsByName.get(value[0]) : objects.get(key(value[1], value[0]));
+					if (target == null) { continue; }
+					for (int r : follow) {
+						if (target[r] != null) { gateway.addDetail(rule.details[d]+"."+catalog.referenceDetails[r], target[r]); }
+					}
+				}
+			}
+		}
+	}
+
+	static String key(String type, String name) {
+		return type+"\u0000"+name;
+	}
+}
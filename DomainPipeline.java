@@ -0,0 +1,384 @@
+/**
+*   Module: DomainPipeline.java
+*
+*   Description: Works on the domains of one appliance export as a pipeline, set with -pipeline.
+*                A reader thread takes the domain zips out of the export one after the other and
+*                inflates them, -threads parser threads run the DomainParser over what was read, and
+*                the thread that called ConfigInventory.inventory() writes the domains out in the
+*                order of the domain list. Reading from disk, inflating and parsing all happen at the
+*                same time. The stages are joined by a bounded queue, the reader waits when -queue
+*                domains are read and not yet parsed, and when -queue plus -threads domains are read
+*                and not yet written. That keeps the memory used by a run the same however many
+*                domains the export has, and however slow the output is.
+*                   read  - the domain export.xml is inflated into memory with -stream, the <files>
+*                           section is dropped as it is read, otherwise the domain zip is extracted
+*                   parse - the DomainParser pass, with the references followed
+*                   write - passing the gateways on to the output
+*                The count, bytes, time busy and time waiting of each stage and how deep the queue got
+*                are in the -metrics report and printed with -debug, a stage that is mostly waiting
+*                has more threads or room than it needs.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+public class DomainPipeline {
+	// Work on the domains as a read, parse and write pipeline, set with -pipeline
+	public static boolean PIPELINE = false;
+
+	// Domains read ahead of the parsers, 0 for twice -threads, set with -queue
+	public static int QUEUE = 0;
+
+	// Tells a parser thread there is nothing more to parse.
+	static final Item END = new Item(-1, null);
+
+	final InventoryMetrics.Export metrics;
+	final ZipFile export;
+	final String tmp;
+	final Item[] items;
+	final int capacity;
+	final BlockingQueue<Item> queue;
+	final Semaphore room;
+	final List<Thread> threads = new ArrayList<Thread>();
+
+	final Stats read = new Stats("read");
+	final Stats parse = new Stats("parse");
+	final Stats write = new Stats("write");
+	long startNanos;
+	long nanos;
+	long queueSamples;
+	long queueTotal;
+	int queueMax;
+	int waiting;		// Parsed domains waiting for the writer
+	int waitingMax;
+	int ceiling;		// Domains holding a place under the -maxmem ceiling
+	long writeStart;
+
+	// One domain going through the pipeline.
+	static class Item {
+		int index;
+		String domain;
+		byte[] xml;			// The export.xml with -stream
+		String file;		// The extracted export.xml otherwise
+		long zipBytes;
+		long xmlBytes;
+		List<Gateway> gateways;
+		Exception error;
+		boolean done;
+
+		Item(int index, String domain) {
+			this.index = index;
+			this.domain = domain;
+		}
+	}
+
+	// The numbers for one stage.
+	static class Stats {
+		String name;
+		long count;
+		long bytes;
+		long busyNanos;
+		long waitNanos;
+
+		Stats(String name) {
+			this.name = name;
+		}
+
+		synchronized void add(long bytes, long busyNanos, long waitNanos) {
+			this.count++;
+			this.bytes += bytes;
+			this.busyNanos += busyNanos;
+			this.waitNanos += waitNanos;
+		}
+
+		synchronized void waited(long nanos) {
+			waitNanos += nanos;
+		}
+	}
+
+	/** start(InventoryMetrics.Export, ZipFile, String, String[], List<List<Gateway>>)
+	* Start the reader and parser threads on the domains of an appliance export.
+	* param - metrics - the numbers for the appliance export, or null when metrics are off.
+	* param - export - the open export zip file when STREAM is on, otherwise null.
+	* param - tmp - the temporary directory the export was extracted to when STREAM is off.
+	* param - domains - the domain list.
+	* param - cached - the gateways of each domain that comes from the cache, null for the ones to read.
+	* return - DomainPipeline - take() the gateways of each domain from it in order.
+	*/
+	public static DomainPipeline start(InventoryMetrics.Export metrics, ZipFile export, String tmp, String[] domains, List<List<Gateway>> cached) {
+		DomainPipeline pipeline = new DomainPipeline(metrics, export, tmp, domains, cached);
+		for (Thread thread : pipeline.threads) { thread.start(); }
+		return pipeline;
+	}
+
+	DomainPipeline(InventoryMetrics.Export metrics, ZipFile export, String tmp, String[] domains, List<List<Gateway>> cached) {
+		this.metrics = metrics;
+		this.export = export;
+		this.tmp = tmp;
+		items = new Item[domains.length];
+		for (int k = 0; k < domains.length; k++) {
+			if (cached.get(k) == null) { items[k] = new Item(k, domains[k]); }
+		}
+		capacity = (QUEUE > 0) ? QUEUE : 2 * ConfigInventory.THREADS;
+		queue = new ArrayBlockingQueue<Item>(capacity);
+		room = new Semaphore(capacity + ConfigInventory.THREADS);
+		startNanos = System.nanoTime();
+
+		threads.add(new Thread(new Runnable() {
+			public void run() { reader(); }
+		}, "inventory-read"));
+		for (int t = 0; t < ConfigInventory.THREADS; t++) {
+			threads.add(new Thread(new Runnable() {
+				public void run() { parser(); }
+			}, "inventory-parse-"+(t + 1)));
+		}
+		for (Thread thread : threads) { thread.setDaemon(true); }
+	}
+
+	/** reader()
+	* The read stage, one domain after the other in domain list order.
+	*/
+	void reader() {
+		try {
+			for (Item item : items) {
+				if (item == null) { continue; }
+				long waitStart = System.nanoTime();
+				// Wait for room in the pipeline, and under the -maxmem ceiling.
+				room.acquire();
+				MemoryCeiling.acquire(item.domain);
+				synchronized (this) { ceiling++; }
+				long busyStart = System.nanoTime();
+				try {
+					read(item);
+				} catch (Exception ex) {
+					item.error = ex;
+				}
+				long busyEnd = System.nanoTime();
+				read.add(item.zipBytes, busyEnd - busyStart, busyStart - waitStart);
+				if (item.error != null) { done(item); continue; }
+				queue.put(item);
+				read.waited(System.nanoTime() - busyEnd);
+				int depth = queue.size();
+				synchronized (this) {
+					queueSamples++;
+					queueTotal += depth;
+					queueMax = Math.max(queueMax, depth);
+				}
+			}
+			for (int t = 0; t < ConfigInventory.THREADS; t++) { queue.put(END); }
+		} catch (InterruptedException ex) {
+			// close() was called, the run is over.
+		}
+	}
+
+	/** read(Item)
+	* Inflate the export.xml of a domain, into memory with -stream or onto tmpDir otherwise.
+	*/
+	void read(Item item) throws Exception {
+		InventoryMetrics.Stage decompress = InventoryMetrics.start(metrics, item.domain, "decompress");
+		try {
+			if (ConfigInventory.STREAM) {
+				final long[] raw = new long[1];
+				InputStream in = new FilterInputStream(ConfigInventory.openZipEntry(export, item.domain+".zip", ConfigInventory.EXPORT_XML)) {
+					public int read(byte[] b, int off, int len) throws IOException {
+						int n = super.read(b, off, len);
+						if (n > 0) { raw[0] += n; }
+						return n;
+					}
+				};
+				// The <files> section is dropped here, so only what the parser needs waits in the queue.
+				InputStream filtered = new PayloadFilter(in, ConfigInventory.SKIP_LIST);
+				try {
+					item.xml = ConfigInventory.readFully(filtered);
+				} finally {
+					filtered.close();
+				}
+				item.zipBytes = export.getEntry(item.domain+".zip").getSize();
+				item.xmlBytes = raw[0];
+			} else {
+				String thisZipFile = tmp+item.domain+".zip";
+				String thisTmpDir = tmp+item.domain+"/";
+				ConfigInventory.unZipIt(thisZipFile, thisTmpDir);
+				item.zipBytes = new File(thisZipFile).length();
+				item.file = thisTmpDir+ConfigInventory.EXPORT_XML;
+				item.xmlBytes = new File(item.file).length();
+			}
+		} finally {
+			InventoryMetrics.end(decompress);
+		}
+	}
+
+	/** parser()
+	* The parse stage, run by each of the -threads parser threads.
+	*/
+	void parser() {
+		try {
+			while (true) {
+				long waitStart = System.nanoTime();
+				Item item = queue.take();
+				if (item == END) { return; }
+				long busyStart = System.nanoTime();
+				try {
+					item.gateways = parse(item);
+				} catch (Exception ex) {
+					item.error = ex;
+				}
+				item.xml = null;
+				parse.add(item.xmlBytes, System.nanoTime() - busyStart, busyStart - waitStart);
+				done(item);
+			}
+		} catch (InterruptedException ex) {
+			// close() was called, the run is over.
+		}
+	}
+
+	/** parse(Item)
+	* return - List<Gateway> - the gateways of a domain that was read, in OBJECT_LIST order.
+	*/
+	List<Gateway> parse(Item item) throws Exception {
+		InventoryMetrics.Domain domainMetrics = (metrics == null) ? null : metrics.domain(item.domain);
+		List<Gateway> gateways = null;
+		if (domainMetrics != null) { domainMetrics.enter(); }
+		InputStream in = null;
+		try {
+			if (item.xml != null) {
+				in = new ByteArrayInputStream(item.xml);
+			} else {
+				in = new PayloadFilter(new BufferedInputStream(new FileInputStream(item.file), ConfigInventory.BUFFER_SIZE), ConfigInventory.SKIP_LIST);
+			}
+			gateways = DomainParser.parse(in, Catalog.current());
+		} finally {
+			if (in != null) { in.close(); }
+			if (domainMetrics != null) {
+				domainMetrics.zipBytes = item.zipBytes;
+				domainMetrics.xmlBytes = item.xmlBytes;
+				domainMetrics.exit(gateways);
+			}
+		}
+		if (ConfigInventory.DEBUG) { System.out.println("DEBUG :: "+item.domain+" has "+ gateways.size() +" gateways."); }
+		return gateways;
+	}
+
+	/** done(Item)
+	* A domain is parsed, or failed, and can be written.
+	*/
+	synchronized void done(Item item) {
+		item.done = true;
+		waiting++;
+		waitingMax = Math.max(waitingMax, waiting);
+		notifyAll();
+	}
+
+	/** take(int)
+	* Wait for a domain to be parsed. Call written() once it has been passed on.
+	* param - k - the index of the domain in the domain list, it must not be one from the cache.
+	* return - List<Gateway> - the gateways in the domain.
+	*/
+	public List<Gateway> take(int k) throws Exception {
+		Item item = items[k];
+		long waitStart = System.nanoTime();
+		synchronized (this) {
+			while (!item.done) { wait(); }
+			waiting--;
+		}
+		writeStart = System.nanoTime();
+		write.waited(writeStart - waitStart);
+		if (item.error != null) { throw item.error; }
+		return item.gateways;
+	}
+
+	/** written(int)
+	* The domain taken with take() has been passed on, make room for the next one.
+	*/
+	public void written(int k) {
+		Item item = items[k];
+		write.add(0, System.nanoTime() - writeStart, 0);
+		item.gateways = null;
+		synchronized (this) { ceiling--; }
+		MemoryCeiling.release();
+		room.release();
+	}
+
+	/** close()
+	* Stop the threads, they are only still running when a domain failed, and record the numbers. The
+	* places the reader holds under the -maxmem ceiling are given back once it has stopped, so one it
+	* takes while it is being stopped is not left held for the rest of a -watch run.
+	*/
+	public void close() {
+		for (Thread thread : threads) { thread.interrupt(); }
+		boolean interrupted = false;
+		Thread reader = threads.get(0);
+		while (reader.isAlive()) {
+			try {
+				reader.join();
+			} catch (InterruptedException ex) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) { Thread.currentThread().interrupt(); }
+		synchronized (this) {
+			for (; ceiling > 0; ceiling--) { MemoryCeiling.release(); }
+		}
+		nanos = System.nanoTime() - startNanos;
+		if (metrics != null) { metrics.pipeline = this; }
+		if (ConfigInventory.DEBUG) {
+			for (Stats stage : new Stats[] {read, parse, write}) {
+				System.out.println("DEBUG :: Pipeline "+stage.name+" "+stage.count+" domains, "+(stage.bytes >> 10)+" KB, "
+					+InventoryMetrics.ms(stage.busyNanos)+" ms busy, "+InventoryMetrics.ms(stage.waitNanos)+" ms waiting, "
+					+String.format(Locale.ROOT, "%.1f", perSecond(stage.count))+" domains/s");
+			}
+			System.out.println("DEBUG :: Pipeline queue of "+capacity+" was at most "+queueMax+" deep, "
+				+String.format(Locale.ROOT, "%.1f", queueAverage())+" on average, at most "+waitingMax+" domains waited to be written");
+		}
+	}
+
+	double perSecond(long count) {
+		return (nanos <= 0) ? 0 : count * 1e9 / nanos;
+	}
+
+	synchronized double queueAverage() {
+		return (queueSamples == 0) ? 0 : (double) queueTotal / queueSamples;
+	}
+
+	/** json(StringBuilder)
+	* Add the numbers for the pipeline to the -metrics report of the appliance export.
+	*/
+	synchronized void json(StringBuilder sb) {
+		sb.append("{");
+		InventoryMetrics.field(sb, "", "ms").append(InventoryMetrics.ms(nanos)).append(", ");
+		InventoryMetrics.field(sb, "", "parsers").append(ConfigInventory.THREADS).append(", ");
+		InventoryMetrics.field(sb, "", "queue").append(capacity).append(", ");
+		InventoryMetrics.field(sb, "", "queueMax").append(queueMax).append(", ");
+		InventoryMetrics.field(sb, "", "queueAvg").append(String.format(Locale.ROOT, "%.2f", queueAverage())).append(", ");
+		InventoryMetrics.field(sb, "", "waitingMax").append(waitingMax);
+		for (Stats stage : new Stats[] {read, parse, write}) {
+			sb.append(", ");
+			InventoryMetrics.field(sb, "", stage.name).append("{");
+			InventoryMetrics.field(sb, "", "count").append(stage.count).append(", ");
+			InventoryMetrics.field(sb, "", "bytes").append(stage.bytes).append(", ");
+			InventoryMetrics.field(sb, "", "busyMs").append(InventoryMetrics.ms(stage.busyNanos)).append(", ");
+			InventoryMetrics.field(sb, "", "waitMs").append(InventoryMetrics.ms(stage.waitNanos)).append(", ");
+			InventoryMetrics.field(sb, "", "perSecond").append(String.format(Locale.ROOT, "%.2f", perSecond(stage.count))).append(", ");
+			InventoryMetrics.field(sb, "", "mbPerSecond").append(String.format(Locale.ROOT, "%.2f", perSecond(stage.bytes) / (1 << 20))).append("}");
+		}
+		sb.append("}");
+	}
+}
@@ -0,0 +1,93 @@
+/**
+*   Module: ExportHeader.java
+*
+*   Description: Reads the appliance information and the domain list from the root export.xml of
+*                an appliance export. The file is read as a stream and the reading stops as soon as
+*                the device-name, product-id, serial-number and firmware-version and the whole
+*                <domains> list have been seen, so the time it takes does not depend on what else is
+*                in the file. Each <domain> in the list gives its name attribute, whatever other
+*                attributes it has and in whatever order.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.io.*;
+import java.util.*;
+import javax.xml.stream.*;
+
+public class ExportHeader {
+	// The elements of export-details that are kept, in the order of the Appliance fields.
+	static final String[] FIELDS = {"device-name", "product-id", "serial-number", "firmware-version"};
+
+	/** read(InputStream)
+	* Read the root export.xml up to the end of what is needed from it.
+	* param - in - the root export.xml, it is not closed.
+	* return - Appliance - the appliance information and domain list. A field that is not in the file
+	*                      is "NA", like getTagValue() gives.
+	*/
+	public static Appliance read(InputStream in) throws IOException {
+		String[] values = {"NA", "NA", "NA", "NA"};
+		int found = 0;
+		List<String> domains = new ArrayList<String>();
+		boolean domainsDone = false;
+		try {
+			XMLStreamReader xr = DomainParser.FACTORY.createXMLStreamReader(in);
+			try {
+				int depthInDomains = 0;		// 0 outside of <domains>, 1 right inside it
+				while (xr.hasNext() && (found < FIELDS.length || !domainsDone)) {
+					int event = xr.next();
+					if (event == XMLStreamConstants.END_ELEMENT && depthInDomains > 0) {
+						if (--depthInDomains == 0) { domainsDone = true; }
+						continue;
+					}
+					if (event != XMLStreamConstants.START_ELEMENT) { continue; }
+					String tag = xr.getLocalName();
+					if (depthInDomains > 0) {
+						// A domain in the list, <domain name="x" .../>.
+						if (depthInDomains == 1 && tag.equals("domain")) {
+							String name = xr.getAttributeValue(null, "name");
+							if (name == null) { name = xr.getElementText().trim(); depthInDomains--; }
+							domains.add(name);
+						}
+						depthInDomains++;
+						continue;
+					}
+					if (tag.equals("domains") && !domainsDone) { depthInDomains = 1; continue; }
+					for (int f = 0; f < FIELDS.length; f++) {
+						if (values[f].equals("NA") && tag.equals(FIELDS[f])) {
+							// The first one wins, the same as getTagValue().
+							values[f] = xr.getElementText();
+							found++;
+							break;
+						}
+					}
+				}
+			} finally {
+				xr.close();
+			}
+		} catch (XMLStreamException ex) {
+			throw new IOException("The root "+ConfigInventory.EXPORT_XML+" could not be read: "+ex.getMessage(), ex);
+		}
+		Appliance appliance = new Appliance();
+		appliance.deviceName = values[0];
+		appliance.productId = values[1];
+		appliance.serialNum = values[2];
+		appliance.firmwareVer = values[3];
+		appliance.domains = domains.toArray(new String[domains.size()]);
+		return appliance;
+	}
+}
@@ -0,0 +1,270 @@
+/**
+*   Module: FleetInventory.java
+*
+*   Description: Inventory many appliance exports in one run. The exports are found in a directory
+*                (every .zip in it) or listed in a manifest file (one path per line, # for comments).
+*                A bounded number of appliances are worked on at the same time. The result is one
+*                merged csv file with a Device column, or with -split one csv file per device.
+*                An export that fails is reported and skipped, the rest of the batch carries on.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.text.SimpleDateFormat;
+
+public class FleetInventory {
+	// Number of appliances worked on at the same time, set with -parallel
+	public static int PARALLEL = 4;
+
+	// Write one csv file per device into the csvFile directory instead of one merged file, set with -split
+	public static boolean SPLIT = false;
+
+	// The csv file names already handed out in -split mode
+	static Set<String> usedNames = new HashSet<String>();
+
+	/** createFleetInventory(String, String, String)
+	* This is the fleet version of ConfigInventory.createInventory().
+	* param - source - a directory of export zip files or a manifest file listing them.
+	* param - tmp - the temporary directory, each export is extracted to its own folder under it.
+	* param - csv - the merged csv file, or the directory for the per device csv files with -split.
+	* return - String - the results of the run.
+	*/
+	public static String createFleetInventory(String source, final String tmp, String csv) {
+		List<File> exports;
+		try {
+			exports = exports(new File(source));
+		} catch (IOException ex) {
+			System.out.println(":: ERROR ::");
+			ex.printStackTrace();
+			return "Nothing done, the exports could not be listed from "+source;
+		}
+		if(ConfigInventory.DEBUG){ System.out.println("DEBUG :: Fleet of "+exports.size()+" exports"); }
+
+		CsvSink merged = null;
+		RecordWriter mergedRecords = null;
+		boolean flat = !RecordWriter.FORMAT.equals("csv");
+		ExecutorService pool = Executors.newFixedThreadPool(PARALLEL);
+		List<String> failed = new ArrayList<String>();
+		try {
+			if (SPLIT) {
+				new File(csv).mkdirs();
+			} else if (flat) {
+				// Flat records carry the device on every one already.
+				mergedRecords = RecordWriter.open(csv, true);
+			} else {
+				merged = CsvSink.open(csv, true);
+				writeMergedHeader(merged);
+			}
+
+			// Hand every export to the pool, then collect them in order so the merged file is the same every run.
+			List<Future<Appliance>> pending = new ArrayList<Future<Appliance>>();
+			for (final File export : exports) {
+				final String csvDir = csv;
+				pending.add(pool.submit(new Callable<Appliance>() {
+					public Appliance call() throws Exception { return inventory(export, exportTmp(tmp, export), csvDir); }
+				}));
+			}
+			for (int i = 0; i < exports.size(); i++) {
+				try {
+					Appliance appliance = pending.get(i).get();
+					if (merged != null) { writeMerged(merged, appliance); }
+					if (mergedRecords != null) {
+						for (Map.Entry<String, List<Gateway>> domain : appliance.gateways.entrySet()) {
+							mergedRecords.domain(appliance, domain.getKey(), domain.getValue());
+						}
+					}
+					System.out.println("Done. "+exports.get(i)+" ("+appliance.deviceName+")");
+				} catch (ExecutionException ex) {
+					// Report it and move on to the next export.
+					Throwable cause = ex.getCause() == null ? ex : ex.getCause();
+					System.out.println("ERROR :: "+exports.get(i)+" was skipped: "+cause);
+					if(ConfigInventory.DEBUG){ cause.printStackTrace(); }
+					failed.add(exports.get(i).getPath());
+				}
+			}
+		} catch (Exception ex) {
+			System.out.println(":: ERROR ::");
+			ex.printStackTrace();
+		} finally {
+			pool.shutdownNow();
+			if (merged != null) { try { merged.close(); } catch (IOException ex) { ex.printStackTrace(); } }
+			if (mergedRecords != null) { try { mergedRecords.close(); } catch (IOException ex) { ex.printStackTrace(); } }
+		}
+
+		int done = exports.size() - failed.size();
+		return "Done. "+done+" of "+exports.size()+" exports written to "+(merged != null ? merged.getPath() : mergedRecords != null ? mergedRecords.getPath() : csv)
+			+ (failed.isEmpty() ? "" : ", "+failed.size()+" failed: "+failed);
+	}
+
+	/** inventory(File, String, String)
+	* The work for one export. With -split the csv file for the device is written here, otherwise the
+	* gateways are kept in the Appliance so they can be merged in order.
+	* param - export - the export zip file.
+	* param - tmp - the temporary directory for this export.
+	* param - csvDir - the directory for the per device csv files with -split.
+	* return - Appliance - the appliance with its gateways when they are to be merged.
+	*/
+	static Appliance inventory(File export, String tmp, final String csvDir) throws Exception {
+		final CsvSink[] out = new CsvSink[1];
+		final RecordWriter[] records = new RecordWriter[1];
+		final boolean flat = !RecordWriter.FORMAT.equals("csv");
+		try {
+			return ConfigInventory.inventory(export.getPath(), tmp, new InventoryListener() {
+				public void appliance(Appliance appliance) throws IOException {
+					if (SPLIT && flat) {
+						records[0] = RecordWriter.open(new File(csvDir, csvName(appliance.deviceName, export)).getPath(), true);
+					} else if (SPLIT) {
+						out[0] = CsvSink.open(new File(csvDir, csvName(appliance.deviceName, export)).getPath(), true);
+						ConfigInventory.writeHeader(out[0], appliance);
+					}
+				}
+				public void domain(Appliance appliance, String domain, List<Gateway> gateways) throws IOException {
+					if (records[0] != null) {
+						records[0].domain(appliance, domain, gateways);
+					} else if (out[0] != null) {
+						ConfigInventory.writeDomain(out[0], domain, gateways);
+					} else {
+						appliance.gateways.put(domain, gateways);
+					}
+				}
+			});
+		} finally {
+			if (out[0] != null) { out[0].close(); }
+			if (records[0] != null) { records[0].close(); }
+		}
+	}
+
+	/** writeMergedHeader(CsvSink)
+	* Write the top of the merged csv file.
+	*/
+	static void writeMergedHeader(CsvSink out) throws IOException {
+		String timeStamp = new SimpleDateFormat("yyyy-MM-dd HH.mm.ss").format(new java.util.Date());
+		out.row("Inventory Date", timeStamp);
+		out.row();
+		if (ConfigInventory.DETAILS) {
+			out.row("Device", "Domain", "Gateway Type", "Gateway Name", "Attribute", "Attribute Value");
+		} else {
+			out.row("Device", "Domain", "Gateway Type", "Gateway Name");
+		}
+		out.flush();
+	}
+
+	/** writeMerged(CsvSink, Appliance)
+	* Write one appliance to the merged csv file. Every row carries the device and domain so the rows
+	* can be sorted and filtered in a spreadsheet without losing track of where they came from.
+	*/
+	static void writeMerged(CsvSink out, Appliance appliance) throws IOException {
+		for (Map.Entry<String, List<Gateway>> domain : appliance.gateways.entrySet()) {
+			for (Gateway gateway : domain.getValue()) {
+				out.row(appliance.deviceName, domain.getKey(), gateway.type, gateway.name);
+				for (String[] detail : gateway.details) {
+					out.row(appliance.deviceName, domain.getKey(), gateway.type, gateway.name, detail[0], detail[1]);
+				}
+			}
+		}
+		out.flush();
+	}
+
+	/** exports(File)
+	* The list of export zip files to work on.
+	* param - source - a directory, all the .zip files in it are used, or a manifest file with one
+	*                  path per line. Relative paths in a manifest are relative to the manifest.
+	* return - List<File> - the export zip files.
+	*/
+	static List<File> exports(File source) throws IOException {
+		return exports(source, ".zip");
+	}
+
+	/** exports(File, String...)
+	* Same as exports(File) above, with the kinds of file that are picked up out of a directory.
+	* param - extensions - the file name endings to use, i.e. ".zip".
+	*/
+	static List<File> exports(File source, String... extensions) throws IOException {
+		List<File> list = new ArrayList<File>();
+		if (source.isDirectory()) {
+			File[] files = source.listFiles();
+			if (files != null) {
+				for (File f : files) {
+					if (!f.isFile()) { continue; }
+					for (String extension : extensions) {
+						if (f.getName().toLowerCase().endsWith(extension)) { list.add(f); break; }
+					}
+				}
+			}
+			Collections.sort(list);
+		} else {
+			BufferedReader in = new BufferedReader(new FileReader(source));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					line = line.trim();
+					if (line.length() == 0 || line.startsWith("#")) { continue; }
+					File f = new File(line);
+					list.add(f.isAbsolute() ? f : new File(source.getAbsoluteFile().getParentFile(), line));
+				}
+			} finally {
+				in.close();
+			}
+		}
+		return list;
+	}
+
+	/** csvName(String, File)
+	* The name of the output file for a device in -split mode. If two exports are of the same device the
+	* second one also gets the export name so they do not write over each other.
+	*/
+	static String csvName(String deviceName, File export) {
+		String extension = RecordWriter.extension();
+		String name = deviceName.replaceAll("[^A-Za-z0-9._-]", "_");
+		synchronized (usedNames) {
+			if (!usedNames.add(name)) {
+				// Two exports both called export.zip of the same device get a number as well.
+				String named = name+"-"+baseName(export);
+				name = named;
+				for (int n = 2; !usedNames.add(name); n++) { name = named+"-"+n; }
+			}
+		}
+		return name+extension;
+	}
+
+	/** exportTmp(String, File)
+	* The temporary directory for one export, a new folder under tmp that no other export uses. Two
+	* exports can have the same file name, export.zip is what DataPower calls them, and they must not
+	* be extracted into the same folder. With -stream nothing is extracted so no folder is made.
+	* param - tmp - the temporary directory ending with a "/".
+	* param - export - the export zip file.
+	* return - String - the temporary directory for the export ending with a "/".
+	*/
+	static String exportTmp(String tmp, File export) throws IOException {
+		if (ConfigInventory.STREAM) { return tmp + baseName(export) + "/"; }
+		Path dir = Paths.get(tmp);
+		Files.createDirectories(dir);
+		return Files.createTempDirectory(dir, baseName(export)+"-").toString() + File.separator;
+	}
+
+	/** baseName(File)
+	* The file name without the .zip on the end.
+	*/
+	static String baseName(File export) {
+		String name = export.getName();
+		return name.toLowerCase().endsWith(".zip") ? name.substring(0, name.length() - 4) : name;
+	}
+}
@@ -0,0 +1,103 @@
+/**
+*   Module: Gateway.java
+*
+*   Description: One named object found in a domain export.xml, i.e. a MultiProtocolGateway,
+*                along with the details collected on it.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.util.*;
+
+public class Gateway {
+	public String type;
+	public String name;
+
+	// The details in the order they are written out, each one is {attribute, value}
+	public List<String[]> details = new ArrayList<String[]>();
+
+	// With -deps, everything the gateway refers to directly or through other objects, each one is
+	// {depth, referenced by type, referenced by, type, name, found}. See DependencyGraph.
+	public List<String[]> dependencies = null;
+
+	// A hash of the details, see fingerprint(). It is worked out once.
+	long fingerprint;
+	boolean fingerprinted = false;
+
+	public Gateway(String type, String name) {
+		this.type = type;
+		this.name = name;
+	}
+
+	/** addDetail(String, String)
+	* Add a detail to the end of the list.
+	* param - attribute - the tag name of the detail.
+	* param - value - the value of the detail.
+	*/
+	public void addDetail(String attribute, String value) {
+		details.add(new String[] {attribute, value});
+	}
+
+	/** fingerprint()
+	* A 64 bit hash of the details, the same for two gateways with the same details whatever order they
+	* were found in. Values have their white space trimmed and runs of it made into one space. Two gateways
+	* with the same type and name can be compared with this instead of detail by detail.
+	* return - long - the fingerprint.
+	*/
+	public synchronized long fingerprint() {
+		if (fingerprinted) { return fingerprint; }
+		String[] normal = new String[details.size()];
+		for (int d = 0; d < normal.length; d++) {
+			String[] detail = details.get(d);
+			normal[d] = detail[0]+"\u0000"+normalize(detail[1]);
+		}
+		Arrays.sort(normal);
+		// FNV-1a over the sorted details.
+		long hash = 0xcbf29ce484222325L;
+		for (String detail : normal) {
+			for (int i = 0; i < detail.length(); i++) {
+				hash = (hash ^ detail.charAt(i)) * 0x100000001b3L;
+			}
+			hash = (hash ^ 0xffff) * 0x100000001b3L;
+		}
+		fingerprint = hash;
+		fingerprinted = true;
+		return fingerprint;
+	}
+
+	/** normalize(String)
+	* The value with its white space trimmed and each run of white space inside it made into one space.
+	*/
+	static String normalize(String value) {
+		StringBuilder sb = new StringBuilder(value.length());
+		boolean space = false;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (Character.isWhitespace(c)) {
+				space = sb.length() > 0;
+			} else {
+				if (space) { sb.append(' '); space = false; }
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	public String toString() {
+		return type+" "+name;
+	}
+}
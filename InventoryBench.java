@@ -0,0 +1,244 @@
+/**
+*   Module: InventoryBench.java
+*
+*   Description: Rough wall clock timings of ConfigInventory against a synthetic export built by
+*                SyntheticExport. It is not a replacement for a real profiler, it just gives us
+*                numbers to compare before and after a change.
+*
+*   Usage: java InventoryBench [domains] [gatewaysPerType] [runs] [maxThreads]
+*          java InventoryBench lookups
+*          java InventoryBench memory [domainMb] [heapMb]
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class InventoryBench {
+
+	/** main()
+	*
+	* Build the synthetic export then time each mode of createInventory against it.
+	*
+	*/
+	public static void main(String arg[]) throws Exception {
+		if (arg.length > 0 && arg[0].equals("lookups")) {
+			boolean passed = true;
+			for (int gateways : new int[] {10, 1000, 10000}) { passed &= lookups(gateways); }
+			if (!passed) { System.exit(1); }
+			return;
+		}
+		if (arg.length > 0 && arg[0].equals("memory")) {
+			int domainMb = arg.length > 1 ? Integer.parseInt(arg[1]) : 1024;
+			int heapMb = arg.length > 2 ? Integer.parseInt(arg[2]) : 256;
+			if (!memory(domainMb, heapMb)) { System.exit(1); }
+			return;
+		}
+		int domains = arg.length > 0 ? Integer.parseInt(arg[0]) : 200;
+		int gateways = arg.length > 1 ? Integer.parseInt(arg[1]) : 5;
+		int runs = arg.length > 2 ? Integer.parseInt(arg[2]) : 5;
+		int maxThreads = arg.length > 3 ? Integer.parseInt(arg[3]) : Runtime.getRuntime().availableProcessors();
+
+		File work = Files.createTempDirectory("inventory-bench").toFile();
+		File zip = new File(work, "synthetic.zip");
+		SyntheticExport.generate(zip, domains, gateways, 20, 2, 256);
+		System.out.println("Synthetic export: "+domains+" domains, "+gateways+" gateways per type, "+zip.length()+" bytes");
+
+		ConfigInventory.zipFile = zip.getAbsolutePath();
+		ConfigInventory.tmpDir = work.getAbsolutePath()+"/extract/";
+		ConfigInventory.DETAILS = true;
+
+		ConfigInventory.STREAM = false;
+		report("extract", time(work, runs));
+		ConfigInventory.STREAM = true;
+		report("stream", time(work, runs));
+
+		// Thread count sweep, each run is checked against the single thread output.
+		String expected = null;
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			ConfigInventory.THREADS = threads;
+			long[] ms = time(work, runs);
+			String csv = body(new File(ConfigInventory.csvFile));
+			if (expected == null) { expected = csv; }
+			report("stream -threads "+threads, ms);
+			if (!csv.equals(expected)) { System.out.println("ERROR :: output with "+threads+" threads is different from 1 thread"); }
+		}
+		ConfigInventory.THREADS = 1;
+
+		ConfigInventory.removeTmpDir(work.getAbsolutePath());
+	}
+
+	/** lookups(int)
+	* Time getting the details of every gateway in one domain with the split() based getTag() against
+	* one DomainParser pass over the domain, which is how the inventory gets them. getTag() is quadratic
+	* so on big domains only a sample of the gateways are looked up with it, both are given per gateway.
+	* param - gateways - the number of gateways in the domain.
+	* return - boolean - true when no gateway got the details of an object it does not refer to.
+	*/
+	static boolean lookups(int gateways) throws Exception {
+		int perType = Math.max(1, gateways / ConfigInventory.OBJECT_LIST.length);
+		String xml = SyntheticExport.domainExport("bench", perType, 20, 2, 0);
+		byte[] bytes = xml.getBytes("UTF-8");
+		List<Gateway> all = DomainParser.parse(new ByteArrayInputStream(bytes), ConfigInventory.OBJECT_LIST, new String[0]);
+		int sample = Math.min(all.size(), 200);
+		long sink = 0;
+		boolean passed = true;
+
+		// Best of 5 rounds, the first rounds are the JIT warm up.
+		double splitUs = Double.MAX_VALUE, parseMs = Double.MAX_VALUE;
+		for (int round = 0; round < 5; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < sample; i++) { sink += details(ConfigInventory.getTag(xml, all.get(i).type, all.get(i).name)); }
+			splitUs = Math.min(splitUs, (System.nanoTime() - start) / 1000.0 / sample);
+
+			start = System.nanoTime();
+			List<Gateway> parsed = DomainParser.parse(new ByteArrayInputStream(bytes), ConfigInventory.OBJECT_LIST, ConfigInventory.OBJECT_DETAILS,
+				ConfigInventory.REFERENCE_LIST, ConfigInventory.REFERENCE_DETAILS);
+			parseMs = Math.min(parseMs, (System.nanoTime() - start) / 1000000.0);
+			for (Gateway gateway : parsed) { sink += gateway.details.size(); }
+			passed &= strays(parsed);
+		}
+
+		System.out.printf("%6d gateways, %9d chars : getTag %10.1f us/lookup (%d sampled) | DomainParser %8.2f ms, %6.2f us/gateway%s\n",
+			all.size(), xml.length(), splitUs, sample, parseMs, parseMs * 1000.0 / all.size(), sink == 0 ? " " : "");
+		return passed;
+	}
+
+	/** strays(List<Gateway>)
+	* Check that no gateway got the details of the HTTPS handler that only has the name of a handler it
+	* refers to, SyntheticExport puts one in each domain.
+	* return - boolean - true when none did.
+	*/
+	static boolean strays(List<Gateway> gateways) {
+		for (Gateway gateway : gateways) {
+			for (String[] detail : gateway.details) {
+				if (detail[0].endsWith(".LocalPort") && detail[1].equals(SyntheticExport.STRAY_PORT)) {
+					System.out.println("ERROR :: "+gateway.type+" "+gateway.name+" has "+detail[0]+" "+detail[1]+" from a handler of another type");
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/** memory(int, int)
+	* Check that a domain export.xml far bigger than the heap can be inventoried. An export with one
+	* domain whose <files> section makes its export.xml domainMb big is built, then ConfigInventory is
+	* run on it in a new JVM with a heap of heapMb, once extracting and once with -stream.
+	* param - domainMb - the size of the domain export.xml in MB.
+	* param - heapMb - the -Xmx of the JVM that runs ConfigInventory.
+	* return - boolean - true when both runs finished with every gateway found.
+	*/
+	static boolean memory(int domainMb, int heapMb) throws Exception {
+		File work = Files.createTempDirectory("inventory-memory").toFile();
+		File zip = new File(work, "synthetic.zip");
+		int gateways = 5;
+		SyntheticExport.generate(zip, 0, gateways, 20, 2, domainMb * 1024);
+		System.out.println("Synthetic export: 1 domain with a "+domainMb+" MB export.xml, "+zip.length()+" bytes");
+
+		boolean passed = true;
+		String java = System.getProperty("java.home")+File.separator+"bin"+File.separator+"java";
+		for (String mode : new String[] {"extract", "stream"}) {
+			File csv = new File(work, mode+".csv");
+			File report = new File(work, mode+".json");
+			// An OutOfMemoryError on any thread ends the JVM with a non-zero exit, even when it was caught.
+			List<String> cmd = new ArrayList<String>(Arrays.asList(java, "-Xmx"+heapMb+"m", "-XX:+ExitOnOutOfMemoryError", "-cp", System.getProperty("java.class.path"),
+				"ConfigInventory", zip.getAbsolutePath(), work.getAbsolutePath()+"/extract/", csv.getAbsolutePath(), "-d", "-metrics", report.getAbsolutePath()));
+			if (mode.equals("stream")) { cmd.add("-stream"); }
+			long start = System.nanoTime();
+			Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+			String output = new String(ConfigInventory.readFully(p.getInputStream()), "UTF-8");
+			int exit = p.waitFor();
+			long ms = (System.nanoTime() - start) / 1000000;
+
+			// Every gateway has to be in the csv file, nothing can have run out of memory or failed, and the
+			// heap can not have grown past the ceiling.
+			int found = 0;
+			if (csv.exists()) {
+				for (String line : Files.readAllLines(csv.toPath())) { if (line.matches(",[A-Za-z0-9]+,[^,]+")) { found++; } }
+			}
+			int expected = gateways * ConfigInventory.OBJECT_LIST.length;
+			String json = report.exists() ? new String(Files.readAllBytes(report.toPath()), "UTF-8") : "";
+			String peak = mb(json, "heapPeakBytes");
+			boolean ok = exit == 0 && found == expected && !output.contains("OutOfMemoryError") && !output.contains("ERROR ::")
+				&& !peak.equals("?") && Long.parseLong(peak) <= heapMb;
+			System.out.printf("%-8s -Xmx%dm : %s in %6d ms | %d of %d gateways | heap peak %s MB | xml %s MB\n", mode, heapMb, ok ? "passed" : "FAILED",
+				ms, found, expected, peak, mb(json, "xmlBytes"));
+			if (!ok) { System.out.println("exit "+exit+"\n"+output); }
+			passed &= ok;
+		}
+		ConfigInventory.removeTmpDir(work.getAbsolutePath());
+		return passed;
+	}
+
+	/** mb(String, String)
+	* The first number with the given name in a -metrics report, in MB.
+	*/
+	static String mb(String json, String name) {
+		java.util.regex.Matcher m = java.util.regex.Pattern.compile("\"" + name + "\": ([0-9]+)").matcher(json);
+		return m.find() ? String.valueOf(Long.parseLong(m.group(1)) >> 20) : "?";
+	}
+
+	/** details(String)
+	* Get every detail out of an object, the same as the -d switch does.
+	*/
+	static int details(String objectDetails) {
+		int found = 0;
+		for (String detail : ConfigInventory.OBJECT_DETAILS) {
+			if (!ConfigInventory.getTagValue(objectDetails, detail).equals("NA")) { found++; }
+		}
+		return found;
+	}
+
+	/** time(File, int)
+	* Run createInventory a few times to warm up then the given number of timed runs.
+	* param - work - the working directory for the csv files.
+	* param - runs - the number of timed runs.
+	* return - long[] - the elapsed milliseconds for each timed run.
+	*/
+	static long[] time(File work, int runs) {
+		long[] ms = new long[runs];
+		for (int r = -2; r < runs; r++) {
+			File csv = new File(work, "bench.csv");
+			csv.delete();
+			ConfigInventory.csvFile = csv.getAbsolutePath();
+			long start = System.nanoTime();
+			ConfigInventory.createInventory();
+			if (r >= 0) { ms[r] = (System.nanoTime() - start) / 1000000; }
+		}
+		return ms;
+	}
+
+	/** body(File)
+	* Read a csv file without its first line, which holds the time stamp of the run.
+	*/
+	static String body(File csv) throws IOException {
+		String all = new String(Files.readAllBytes(csv.toPath()), "UTF-8");
+		return all.substring(all.indexOf('\n') + 1);
+	}
+
+	/** report(String, long[])
+	* Print the best and average of a set of timings.
+	*/
+	static void report(String label, long[] ms) {
+		long best = Long.MAX_VALUE; long total = 0;
+		for (long m : ms) { best = Math.min(best, m); total += m; }
+		System.out.printf("%-20s : best %6d ms | avg %6d ms | runs %d\n", label, best, total / ms.length, ms.length);
+	}
+}
@@ -0,0 +1,320 @@
+/**
+*   Module: InventoryCache.java
+*
+*   Description: A cache of the gateways found in each domain of an appliance, kept between runs.
+*                Each domain is keyed by the CRC and size of its <domain>.zip entry, which come from
+*                the zip directory of the export and cost nothing to read. When they have not changed
+*                since the last run the domain zip is not inflated or parsed at all, the gateways come
+*                from the cache. There is one cache file per device in the -cache directory.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.*;
+
+public class InventoryCache {
+	// Directory the cache files are kept in, set with -cache. No cache is used when it is null.
+	public static String CACHE_DIR = null;
+
+	// Print the gateways added, removed and changed since the cached run, set with -diff
+	public static boolean DIFF = false;
+
+	// Bump this when the layout of the cache file changes, old files are then ignored.
+	static final int VERSION = 3;
+
+	// What was cached for one domain.
+	static class Entry {
+		long crc;
+		long size;
+		List<Gateway> gateways;
+
+		Entry(long crc, long size, List<Gateway> gateways) { this.crc = crc; this.size = size; this.gateways = gateways; }
+	}
+
+	File file;
+	String signature;
+	Map<String, Entry> previous = new LinkedHashMap<String, Entry>();
+	Map<String, Entry> current = new LinkedHashMap<String, Entry>();
+	boolean loaded = false;
+	int hits = 0;
+
+	/** open(String)
+	* Open the cache for a device, the previous run is loaded if there is one that was made with the
+	* same Catalog, details and -deps switches as this run.
+	* param - deviceName - the device-name from the root export.xml.
+	* return - InventoryCache - the cache, or null when -cache is not used.
+	*/
+	public static InventoryCache open(String deviceName) {
+		if (CACHE_DIR == null) { return null; }
+		InventoryCache cache = new InventoryCache();
+		new File(CACHE_DIR).mkdirs();
+		cache.file = new File(CACHE_DIR, deviceName.replaceAll("[^A-Za-z0-9._-]", "_")+".cache");
+		cache.signature = ConfigInventory.DETAILS+"|"+(DependencyGraph.DEPS != null)+"|"+Catalog.current().signature();
+		if (cache.file.exists()) {
+			try {
+				cache.load();
+			} catch (IOException ex) {
+				// A bad cache file is not fatal, every domain is just worked on again.
+				System.out.println("ERROR :: the cache "+cache.file+" could not be read and will be replaced: "+ex);
+				cache.previous.clear();
+			}
+		}
+		return cache;
+	}
+
+	/** lookup(String, ZipEntry)
+	* Get the gateways for a domain from the previous run.
+	* param - domain - the domain name.
+	* param - zipEntry - the <domain>.zip entry in the export.
+	* return - List<Gateway> - the cached gateways, or null when the domain has changed or is new.
+	*/
+	public List<Gateway> lookup(String domain, ZipEntry zipEntry) {
+		Entry e = previous.get(domain);
+		if (e == null || zipEntry == null || e.crc != zipEntry.getCrc() || e.size != zipEntry.getSize()) { return null; }
+		hits++;
+		return e.gateways;
+	}
+
+	/** put(String, ZipEntry, List<Gateway>)
+	* Record the gateways of a domain for this run, in domain list order.
+	*/
+	public void put(String domain, ZipEntry zipEntry, List<Gateway> gateways) {
+		if (zipEntry == null) { return; }
+		current.put(domain, new Entry(zipEntry.getCrc(), zipEntry.getSize(), gateways));
+	}
+
+	/** read(File)
+	* Read a cache file whatever it was made with, for -compare.
+	* param - file - the cache file.
+	* return - InventoryCache - the cache, signature is what the file was made with.
+	*/
+	public static InventoryCache read(File file) throws IOException {
+		InventoryCache cache = new InventoryCache();
+		cache.file = file;
+		cache.load();
+		if (!cache.loaded) { throw new IOException(file+" is not a cache file of this version"); }
+		return cache;
+	}
+
+	/** gateways()
+	* return - Map<String, List<Gateway>> - the gateways of each domain of the loaded run, in domain order.
+	*/
+	public Map<String, List<Gateway>> gateways() {
+		Map<String, List<Gateway>> map = new LinkedHashMap<String, List<Gateway>>();
+		for (Map.Entry<String, Entry> domain : previous.entrySet()) { map.put(domain.getKey(), domain.getValue().gateways); }
+		return map;
+	}
+
+	/** load()
+	* Read the previous run from the cache file. With no signature any run is read, and signature is
+	* set to the one it was made with.
+	*/
+	void load() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), ConfigInventory.BUFFER_SIZE));
+		try {
+			if (in.readInt() != VERSION) { return; }
+			String made = readString(in);
+			if (signature != null && !made.equals(signature)) { return; }
+			signature = made;
+			int domains = in.readInt();
+			for (int d = 0; d < domains; d++) {
+				String domain = readString(in);
+				long crc = in.readLong();
+				long size = in.readLong();
+				int count = in.readInt();
+				List<Gateway> gateways = new ArrayList<Gateway>(count);
+				for (int g = 0; g < count; g++) {
+					Gateway gateway = new Gateway(readString(in), readString(in));
+					int details = in.readInt();
+					for (int i = 0; i < details; i++) { gateway.addDetail(readString(in), readString(in)); }
+					int dependencies = in.readInt();
+					if (dependencies >= 0) {
+						gateway.dependencies = new ArrayList<String[]>(dependencies);
+						for (int i = 0; i < dependencies; i++) {
+							String[] dependency = new String[6];
+							for (int f = 0; f < dependency.length; f++) { dependency[f] = readString(in); }
+							gateway.dependencies.add(dependency);
+						}
+					}
+					gateways.add(gateway);
+				}
+				previous.put(domain, new Entry(crc, size, gateways));
+			}
+			loaded = true;
+		} finally {
+			in.close();
+		}
+	}
+
+	/** save()
+	* Write this run to the cache file. It is written to a new file first so a run that is stopped part
+	* way through never leaves a broken cache behind.
+	*/
+	public void save() throws IOException {
+		// A file of its own, another run of the same device with -fleet or -watch may be saving too.
+		File tmp = File.createTempFile(file.getName()+"-", ".tmp", file.getAbsoluteFile().getParentFile());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), ConfigInventory.BUFFER_SIZE));
+		boolean written = false;
+		try {
+			out.writeInt(VERSION);
+			writeString(out, signature);
+			out.writeInt(current.size());
+			for (Map.Entry<String, Entry> domain : current.entrySet()) {
+				Entry e = domain.getValue();
+				writeString(out, domain.getKey());
+				out.writeLong(e.crc);
+				out.writeLong(e.size);
+				out.writeInt(e.gateways.size());
+				for (Gateway gateway : e.gateways) {
+					writeString(out, gateway.type);
+					writeString(out, gateway.name);
+					out.writeInt(gateway.details.size());
+					for (String[] detail : gateway.details) { writeString(out, detail[0]); writeString(out, detail[1]); }
+					// -1 when there was no -deps.
+					out.writeInt(gateway.dependencies == null ? -1 : gateway.dependencies.size());
+					if (gateway.dependencies != null) {
+						for (String[] dependency : gateway.dependencies) { for (String field : dependency) { writeString(out, field); } }
+					}
+				}
+			}
+			written = true;
+		} finally {
+			out.close();
+			if (!written) { tmp.delete(); }
+		}
+		// The last run to finish is the one kept.
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				tmp.delete();
+				throw new IOException("Could not replace "+file);
+			}
+		}
+	}
+
+	/** writeString(DataOutputStream, String)
+	* Write a string as its length and UTF-8 bytes. writeUTF() can not write one over 64K, and a detail
+	* like a stylesheet or a URL rewrite policy can be that long.
+	*/
+	static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/** readString(DataInputStream)
+	* Read a string written by writeString().
+	*/
+	static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) { throw new IOException("Broken cache file, a string has length "+length); }
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/** printDiff(PrintStream, String)
+	* Print the gateways that were added, removed or had their details changed since the cached run.
+	* Domains that came from the cache have not changed so they are not looked at.
+	* param - out - where to print.
+	* param - deviceName - the device the cache is for.
+	*/
+	public void printDiff(PrintStream out, String deviceName) {
+		if (!loaded) {
+			out.println("DIFF :: "+deviceName+" has no previous run in the cache to compare with");
+			return;
+		}
+		int changes = 0;
+		for (Map.Entry<String, Entry> domain : current.entrySet()) {
+			Entry before = previous.get(domain.getKey());
+			if (before == null) {
+				out.println("DIFF :: + domain "+domain.getKey());
+				changes++;
+			}
+			changes += diffDomain(out, domain.getKey(), before == null ? new ArrayList<Gateway>() : before.gateways, domain.getValue().gateways);
+		}
+		for (Map.Entry<String, Entry> domain : previous.entrySet()) {
+			if (current.containsKey(domain.getKey())) { continue; }
+			out.println("DIFF :: - domain "+domain.getKey());
+			changes++;
+			changes += diffDomain(out, domain.getKey(), domain.getValue().gateways, new ArrayList<Gateway>());
+		}
+		out.println("DIFF :: "+deviceName+" has "+changes+" changes since the cached run");
+	}
+
+	/** diffDomain(PrintStream, String, List<Gateway>, List<Gateway>)
+	* Print the differences in one domain.
+	* return - int - the number of differences printed.
+	*/
+	static int diffDomain(PrintStream out, String domain, List<Gateway> before, List<Gateway> after) {
+		int changes = 0;
+		Map<String, Gateway> old = new LinkedHashMap<String, Gateway>();
+		for (Gateway gateway : before) { old.put(gateway.type+" "+gateway.name, gateway); }
+		for (Gateway gateway : after) {
+			Gateway was = old.remove(gateway.type+" "+gateway.name);
+			if (was == null) {
+				out.println("DIFF :: + "+domain+", "+gateway.type+", "+gateway.name);
+				changes++;
+			} else {
+				String changed = changedDetails(was, gateway);
+				if (changed.length() > 0) {
+					out.println("DIFF :: ~ "+domain+", "+gateway.type+", "+gateway.name+" :"+changed);
+					changes++;
+				}
+			}
+		}
+		for (Gateway gateway : old.values()) {
+			out.println("DIFF :: - "+domain+", "+gateway.type+", "+gateway.name);
+			changes++;
+		}
+		return changes;
+	}
+
+	/** changedDetails(Gateway, Gateway)
+	* The details that are different between two runs of the same gateway.
+	* return - String - each changed detail as " attribute: old -> new", empty when nothing changed.
+	*/
+	static String changedDetails(Gateway before, Gateway after) {
+		Map<String, String> was = detailMap(before);
+		Map<String, String> now = detailMap(after);
+		Set<String> attributes = new LinkedHashSet<String>(was.keySet());
+		attributes.addAll(now.keySet());
+		StringBuilder sb = new StringBuilder();
+		for (String attribute : attributes) {
+			String a = was.containsKey(attribute) ? was.get(attribute) : "NA";
+			String b = now.containsKey(attribute) ? now.get(attribute) : "NA";
+			if (!a.equals(b)) { sb.append(" ").append(attribute).append(": ").append(a).append(" -> ").append(b); }
+		}
+		return sb.toString();
+	}
+
+	/** detailMap(Gateway)
+	* The details of a gateway by attribute, an attribute that shows up more than once has its values
+	* joined with " | ".
+	*/
+	static Map<String, String> detailMap(Gateway gateway) {
+		Map<String, String> map = new LinkedHashMap<String, String>();
+		for (String[] detail : gateway.details) {
+			String value = map.get(detail[0]);
+			map.put(detail[0], value == null ? detail[1] : value+" | "+detail[1]);
+		}
+		return map;
+	}
+}
@@ -0,0 +1,322 @@
+/**
+*   Module: InventoryDrift.java
+*
+*   Description: Compares the gateways of two or more appliance exports, set with -compare. The two
+*                appliances of an HA pair, the same appliance on two nights, or a whole fleet that is
+*                meant to be built the same. zipFile is a directory or a manifest like with -fleet,
+*                and it can hold -cache files as well as export zip files so a run can be compared
+*                with the one before it without keeping the old zip. -compare turns on -d.
+*
+*                Each gateway is known by its domain, type and name, never by where it is in the
+*                output. Its details are boiled down to a fingerprint as the domain is parsed, see
+*                Gateway.fingerprint(). As each export is read it is folded into one map from gateway
+*                to the fingerprints seen and the exports that have each one, and only one copy of the
+*                details of each different fingerprint is kept. So 50 appliances cost 50 reads and one
+*                map, not a compare of every pair, and identical gateways are held once.
+*
+*                What most of the exports have is taken to be what they should all have, and when it
+*                is a tie the first export wins, so with two exports the first one is the baseline.
+*                A gateway is only judged by the exports that have its domain, the others were
+*                already reported as missing the whole domain.
+*                The csvFile lists, per domain, every export that is missing a gateway or domain the
+*                others have, has one extra, or has one with different details, along with what they
+*                are. An export that can not be read is reported and left out of the compare.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.text.SimpleDateFormat;
+
+public class InventoryDrift {
+	// Compare the exports in zipFile instead of writing their inventory, set with -compare
+	public static boolean COMPARE = false;
+
+	// One way a gateway was found, the first gateway with the fingerprint and the exports that have it.
+	static class Variant {
+		long fingerprint;
+		Gateway gateway;
+		BitSet exports = new BitSet();
+	}
+
+	// One gateway across all the exports.
+	static class Entry {
+		String domain;
+		Gateway first;
+		BitSet present = new BitSet();
+		List<Variant> variants = new ArrayList<Variant>(1);
+	}
+
+	// The name of each export in the compare, and its device.
+	List<String> labels = new ArrayList<String>();
+	List<String> devices = new ArrayList<String>();
+	List<String> files = new ArrayList<String>();
+
+	// The domains and the exports that have them, and every gateway by domain, type and name, in the
+	// order they were first seen.
+	Map<String, BitSet> domains = new LinkedHashMap<String, BitSet>();
+	Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+	/** compare(String, String, String)
+	* Read every export and write what is different between them.
+	* param - source - a directory of export zip and .cache files, or a manifest file listing them.
+	* param - tmp - the temporary directory, each export is extracted to its own folder under it.
+	* param - csv - the file the differences are written to.
+	* return - String - the results of the run.
+	*/
+	public static String compare(String source, final String tmp, String csv) {
+		List<File> exports;
+		try {
+			exports = FleetInventory.exports(new File(source), ".zip", ".cache");
+		} catch (IOException ex) {
+			System.out.println(":: ERROR ::");
+			ex.printStackTrace();
+			return "Nothing done, the exports could not be listed from "+source;
+		}
+		if (exports.size() < 2) { return "Nothing done, there need to be at least two exports to compare in "+source; }
+
+		List<String> names = labels(exports);
+		InventoryDrift drift = new InventoryDrift();
+		ExecutorService pool = Executors.newFixedThreadPool(FleetInventory.PARALLEL);
+		List<String> failed = new ArrayList<String>();
+		int[] counts = null;
+		String written = csv;
+		try {
+			// Read the exports on the pool, and fold them in in order so the report is the same every run.
+			List<Future<Appliance>> pending = new ArrayList<Future<Appliance>>();
+			for (int i = 0; i < exports.size(); i++) {
+				final File export = exports.get(i);
+				final String label = names.get(i);
+				pending.add(pool.submit(new Callable<Appliance>() {
+					public Appliance call() throws Exception { return read(export, tmp, label); }
+				}));
+			}
+			for (int i = 0; i < exports.size(); i++) {
+				try {
+					Appliance appliance = pending.get(i).get();
+					// Once it is folded in only the fingerprints and the odd new details are kept.
+					pending.set(i, null);
+					drift.add(names.get(i), exports.get(i).getPath(), appliance);
+					System.out.println("Read. "+exports.get(i)+" ("+appliance.deviceName+")");
+				} catch (ExecutionException ex) {
+					Throwable cause = ex.getCause() == null ? ex : ex.getCause();
+					System.out.println("ERROR :: "+exports.get(i)+" was skipped: "+cause);
+					if(ConfigInventory.DEBUG){ cause.printStackTrace(); }
+					failed.add(exports.get(i).getPath());
+				}
+			}
+			if (drift.labels.size() < 2) { return "Nothing done, fewer than two exports could be read: "+failed; }
+			CsvSink out = CsvSink.open(csv, false);
+			try {
+				counts = drift.write(out);
+			} finally {
+				out.close();
+			}
+			written = out.getPath();
+		} catch (Exception ex) {
+			System.out.println(":: ERROR ::");
+			ex.printStackTrace();
+			return "Nothing done, the compare failed";
+		} finally {
+			pool.shutdownNow();
+		}
+		return "Done. Compared "+drift.labels.size()+" exports with "+drift.entries.size()+" gateways in "+written+": "
+			+counts[0]+" missing, "+counts[1]+" extra, "+counts[2]+" different"
+			+(failed.isEmpty() ? "" : ", "+failed.size()+" failed: "+failed);
+	}
+
+	/** read(File, String, String)
+	* Read one export, or the run kept in a -cache file.
+	* param - tmp - the temporary directory, a zip export is extracted to a folder of its own under it.
+	* param - label - the name of the export in the report, a -cache file has no device name so it is used.
+	* return - Appliance - the appliance with the gateways of each domain.
+	*/
+	static Appliance read(File export, String tmp, String label) throws Exception {
+		if (export.getName().toLowerCase().endsWith(".cache")) {
+			InventoryCache cache = InventoryCache.read(export);
+			// Made with -d and the same catalog, -deps does not change the details.
+			if (!cache.signature.startsWith("true|") || !cache.signature.endsWith("|"+Catalog.current().signature())) {
+				System.out.println("ERROR :: "+export+" was made with other switches or another catalog, its details may not compare");
+			}
+			Appliance appliance = new Appliance();
+			appliance.deviceName = label;
+			appliance.gateways = cache.gateways();
+			appliance.domains = appliance.gateways.keySet().toArray(new String[appliance.gateways.size()]);
+			return appliance;
+		}
+		return ConfigInventory.inventory(export.getPath(), FleetInventory.exportTmp(tmp, export), new InventoryListener() {
+			public void appliance(Appliance appliance) {}
+			public void domain(Appliance appliance, String domain, List<Gateway> gateways) { appliance.gateways.put(domain, gateways); }
+		});
+	}
+
+	/** labels(List<File>)
+	* The name each export goes by in the report. Exports are often all called export.zip, so when two
+	* have the same name the folder each is in is put in front of it, siteA/export, and a number after
+	* it if that is the same too.
+	*/
+	static List<String> labels(List<File> exports) {
+		Map<String, Integer> named = new HashMap<String, Integer>();
+		for (File export : exports) {
+			Integer n = named.get(label(export));
+			named.put(label(export), n == null ? 1 : n + 1);
+		}
+		List<String> labels = new ArrayList<String>();
+		Set<String> used = new HashSet<String>();
+		for (File export : exports) {
+			String name = label(export);
+			File folder = export.getAbsoluteFile().getParentFile();
+			if (named.get(name) > 1 && folder != null) { name = folder.getName()+"/"+name; }
+			String unique = name;
+			for (int n = 2; !used.add(unique); n++) { unique = name+"#"+n; }
+			labels.add(unique);
+		}
+		return labels;
+	}
+
+	/** label(File)
+	* The file name of an export without .zip or .cache.
+	*/
+	static String label(File export) {
+		String name = FleetInventory.baseName(export);
+		return name.toLowerCase().endsWith(".cache") ? name.substring(0, name.length() - 6) : name;
+	}
+
+	/** add(String, String, Appliance)
+	* Fold one export into the compare. Only the fingerprints are kept, and the details of a gateway
+	* that is not like any seen before.
+	*/
+	void add(String label, String file, Appliance appliance) {
+		int e = labels.size();
+		labels.add(label);
+		devices.add(appliance.deviceName);
+		files.add(file);
+		for (Map.Entry<String, List<Gateway>> domain : appliance.gateways.entrySet()) {
+			BitSet has = domains.get(domain.getKey());
+			if (has == null) { has = new BitSet(); domains.put(domain.getKey(), has); }
+			has.set(e);
+			for (Gateway gateway : domain.getValue()) {
+				String key = DomainParser.key(domain.getKey(), DomainParser.key(gateway.type, gateway.name));
+				Entry entry = entries.get(key);
+				if (entry == null) {
+					entry = new Entry();
+					entry.domain = domain.getKey();
+					entry.first = gateway;
+					entries.put(key, entry);
+				}
+				// The same type and name twice in a domain, the first one counts like getTag().
+				if (entry.present.get(e)) { continue; }
+				entry.present.set(e);
+				long fingerprint = gateway.fingerprint();
+				Variant variant = null;
+				for (Variant v : entry.variants) { if (v.fingerprint == fingerprint) { variant = v; break; } }
+				if (variant == null) {
+					variant = new Variant();
+					variant.fingerprint = fingerprint;
+					variant.gateway = gateway;
+					entry.variants.add(variant);
+				}
+				variant.exports.set(e);
+			}
+		}
+	}
+
+	/** expected(BitSet, BitSet)
+	* param - exports - the exports that have something.
+	* param - of - the exports that are judged, exports is part of it.
+	* return - boolean - true when most of the exports judged are in the set, or half of them and the first one.
+	*/
+	static boolean expected(BitSet exports, BitSet of) {
+		int count = exports.cardinality();
+		int all = of.cardinality();
+		return count * 2 > all || (count * 2 == all && exports.get(of.nextSetBit(0)));
+	}
+
+	/** write(CsvSink)
+	* Write the differences, domain by domain.
+	* return - int[] - the number of {missing, extra, different} rows.
+	*/
+	int[] write(CsvSink out) throws IOException {
+		int[] counts = new int[3];
+		String timeStamp = new SimpleDateFormat("yyyy-MM-dd HH.mm.ss").format(new java.util.Date());
+		out.row("Compare Date", timeStamp);
+		out.row();
+		out.row("Export", "Device", "File");
+		for (int e = 0; e < labels.size(); e++) { out.row(labels.get(e), devices.get(e), files.get(e)); }
+		out.row();
+		out.row("Domain", "Gateway Type", "Gateway Name", "Export", "Change", "Compared With", "Differences");
+
+		// The gateways of each domain, in the order they were first seen.
+		Map<String, List<Entry>> byDomain = new LinkedHashMap<String, List<Entry>>();
+		for (String domain : domains.keySet()) { byDomain.put(domain, new ArrayList<Entry>()); }
+		for (Entry entry : entries.values()) { byDomain.get(entry.domain).add(entry); }
+
+		BitSet every = new BitSet();
+		every.set(0, labels.size());
+		for (Map.Entry<String, List<Entry>> domain : byDomain.entrySet()) {
+			BitSet has = domains.get(domain.getKey());
+			boolean domainExpected = expected(has, every);
+			String domainWith = labels.get(has.nextSetBit(0));
+			for (int e = 0; e < labels.size(); e++) {
+				if (domainExpected && !has.get(e)) {
+					out.row(domain.getKey(), "", "", labels.get(e), "missing domain", domainWith, "");
+					counts[0]++;
+				} else if (!domainExpected && has.get(e)) {
+					out.row(domain.getKey(), "", "", labels.get(e), "extra domain", "", "");
+					counts[1]++;
+				}
+			}
+			for (Entry entry : domain.getValue()) {
+				String type = entry.first.type;
+				String name = entry.first.name;
+				boolean gatewayExpected = expected(entry.present, has);
+				for (int e = 0; e < labels.size(); e++) {
+					// A domain that is missing or extra as a whole was reported above, and an export
+					// without the domain has nothing to say about its gateways.
+					if (!domainExpected || !has.get(e)) { continue; }
+					if (gatewayExpected && !entry.present.get(e)) {
+						out.row(domain.getKey(), type, name, labels.get(e), "missing", labels.get(entry.present.nextSetBit(0)), "");
+						counts[0]++;
+					} else if (!gatewayExpected && entry.present.get(e)) {
+						out.row(domain.getKey(), type, name, labels.get(e), "extra", "", "");
+						counts[1]++;
+					}
+				}
+				if (entry.variants.size() < 2) { continue; }
+				// The details most of the exports that have the gateway agree on, the first one on a tie.
+				Variant common = entry.variants.get(0);
+				for (Variant v : entry.variants) {
+					int c = v.exports.cardinality() - common.exports.cardinality();
+					if (c > 0 || (c == 0 && v.exports.nextSetBit(0) < common.exports.nextSetBit(0))) { common = v; }
+				}
+				String commonWith = labels.get(common.exports.nextSetBit(0));
+				for (Variant v : entry.variants) {
+					if (v == common) { continue; }
+					String changed = InventoryCache.changedDetails(common.gateway, v.gateway).trim();
+					for (int e = v.exports.nextSetBit(0); e >= 0; e = v.exports.nextSetBit(e + 1)) {
+						out.row(domain.getKey(), type, name, labels.get(e), "different", commonWith, changed);
+						counts[2]++;
+					}
+				}
+			}
+			out.flush();
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,88 @@
+/**
+*   Module: InventoryEvents.java
+*
+*   Description: The Java Flight Recorder events of an inventory run, turned on with -jfr. There is
+*                a datapower.inventory.Domain event for each domain worked on and a
+*                datapower.inventory.Stage event for each stage of it, see InventoryMetrics. They are
+*                only recorded when a recording is running, i.e. when java is started with
+*                -XX:StartFlightRecording=filename=inventory.jfr, and can be read with
+*                "jfr print --events datapower.inventory.Domain inventory.jfr" or in Mission Control.
+*
+*                The events themselves are in jfr/InventoryFlightRecorder.java, which needs Java 11.
+*                It is loaded by name the first time -jfr needs it, so everything else builds with
+*                javac --release 8 and runs on Java 8. When it can not be loaded -jfr records nothing.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+public class InventoryEvents {
+
+	// What the events are recorded with, see jfr/InventoryFlightRecorder.java.
+	interface Recorder {
+		Object begin();
+		Object beginDomain();
+		void commit(Object started, InventoryMetrics.Export export, InventoryMetrics.Domain domain, String stage);
+		void commit(Object started, InventoryMetrics.Domain domain);
+	}
+
+	// Loaded the first time an event is started, null when it could not be.
+	static final Recorder RECORDER = load();
+
+	/** load()
+	* Load the recorder. It is not there on Java 8, or when jfr/ was not compiled.
+	* return - Recorder - the recorder, or null.
+	*/
+	static Recorder load() {
+		try {
+			return (Recorder) Class.forName("InventoryFlightRecorder").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError ex) {
+			System.out.println("ERROR :: -jfr needs Java 11 or later and the classes in jfr/ (javac -d . jfr/*.java), no events are recorded");
+			if(ConfigInventory.DEBUG){ System.out.println("DEBUG :: "+ex); }
+			return null;
+		}
+	}
+
+	/** begin()
+	* Start a stage event.
+	* return - Object - the started event, null when there is no recorder.
+	*/
+	static Object begin() {
+		return (RECORDER == null) ? null : RECORDER.begin();
+	}
+
+	/** beginDomain()
+	* Start a domain event.
+	* return - Object - the started event, null when there is no recorder.
+	*/
+	static Object beginDomain() {
+		return (RECORDER == null) ? null : RECORDER.beginDomain();
+	}
+
+	/** commit(Object, InventoryMetrics.Export, InventoryMetrics.Domain, String)
+	* Record a stage event.
+	*/
+	static void commit(Object started, InventoryMetrics.Export export, InventoryMetrics.Domain domain, String stage) {
+		if (started != null) { RECORDER.commit(started, export, domain, stage); }
+	}
+
+	/** commit(Object, InventoryMetrics.Domain)
+	* Record a domain event once the domain is done.
+	*/
+	static void commit(Object started, InventoryMetrics.Domain domain) {
+		if (started != null) { RECORDER.commit(started, domain); }
+	}
+}
@@ -0,0 +1,823 @@
+/**
+*   Module: InventoryIndex.java
+*
+*   Description: An index of the gateways and details of every appliance export inventoried with
+*                -index, kept on disk between runs so questions like "which gateways point at this
+*                BackendUrl" or "every listener on port 443" can be asked of the whole fleet and its
+*                history without opening a csv file.
+*
+*                Each export inventoried is a run. While the domains are written the gateways are
+*                also spooled to a .run file in the index directory, and at the end of the program
+*                the .run files are merged into inventory.idx. A gateway that has not changed since
+*                the last run of its device is stored once, only the runs it was seen in are kept,
+*                as first and last run pairs. So a nightly inventory of the fleet adds little more
+*                than what changed that night.
+*
+*                inventory.idx is an inverted index. Every gateway is a document with its device,
+*                domain, type, name and details, and every value is a term pointing at the
+*                documents that have it:
+*                   device:NAME  domain:NAME  type:NAME  name:NAME     the gateway itself
+*                   Attribute=value                                    a detail
+*                   *=value                                            a detail of any attribute
+*                A detail of a reference, i.e. FrontProtocol.LocalPort, is also a LocalPort term. The
+*                terms are lower case and sorted, a query binary searches them on disk, so it only
+*                reads a few KB whatever the size of the index.
+*
+*                The layout of inventory.idx, all numbers are big endian and strings are an int
+*                length followed by UTF-8:
+*                   documents     int pairs, (int firstRun, int lastRun) * pairs, device, domain,
+*                                 type, name, int details, (attribute, value) * details
+*                   long[]        the offset of each document
+*                   terms         term, int documents, the document numbers as varint deltas
+*                   long[]        the offset of each term
+*                   runs          device, date, zip
+*                   footer        long, int of the document offsets and count, long, int of the
+*                                 term offsets and count, long, int of the runs and count, int
+*                                 VERSION, int MAGIC
+*
+*                java InventoryIndex indexDir term...    queries it, see usage().
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.io.*;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+public class InventoryIndex implements Closeable {
+	// Directory the index is kept in, set with -index. Nothing is indexed when it is null.
+	public static String INDEX_DIR = null;
+
+	static final int MAGIC = 0x44504958;		// "DPIX"
+	// Bump this when the layout of inventory.idx or a .run file changes.
+	static final int VERSION = 1;
+	static final int FOOTER = 44;
+	static final String INDEX_FILE = "inventory.idx";
+	static final String RUN_SUFFIX = ".run";
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	static int runSequence = 0;
+	// The runs this program is still recording, by .run file name, with the device part of the name.
+	static Map<String, String> recording = new HashMap<String, String>();
+
+	RandomAccessFile file;
+	long docOffsets;
+	int docCount;
+	long termOffsets;
+	int termCount;
+	List<String[]> runs = new ArrayList<String[]>();		// {device, date, zip} of each run
+	Map<String, Integer> latest = new HashMap<String, Integer>();	// The last run of each device
+
+	// A gateway found by a query.
+	public static class Hit {
+		public String device;
+		public String domain;
+		public String type;
+		public String name;
+		public List<String[]> details = new ArrayList<String[]>();
+		// The details that matched the query, each one is {attribute, value}
+		public List<String[]> matched = new ArrayList<String[]>();
+		public String firstSeen;
+		public String lastSeen;
+		// The gateway is on the device as of its last run
+		public boolean current;
+
+		public String toString() {
+			return device+" "+domain+" "+type+" "+name;
+		}
+	}
+
+	// ******
+	// Writing, one .run file per export, merged into inventory.idx by commit().
+	// ******
+
+	// The gateways of one export, spooled to a .run file as the domains are done.
+	public static class Run {
+		File dir;
+		File file;
+		DataOutputStream out;
+
+		/** domain(String, List<Gateway>)
+		* Add a domain to the run.
+		*/
+		public void domain(String domain, List<Gateway> gateways) throws IOException {
+			out.writeBoolean(true);
+			str(out, domain);
+			out.writeInt(gateways.size());
+			for (Gateway gateway : gateways) {
+				str(out, gateway.type);
+				str(out, gateway.name);
+				out.writeInt(gateway.details.size());
+				for (String[] detail : gateway.details) { str(out, detail[0]); str(out, detail[1]); }
+			}
+		}
+
+		/** finish()
+		* The export is done, the run is left for commit() to pick up.
+		*/
+		public void finish() throws IOException {
+			File done = new File(dir, file.getName().substring(0, file.getName().length() - 4));
+			try {
+				out.writeBoolean(false);
+				out.close();
+				if (!file.renameTo(done)) { throw new IOException("Could not rename "+file+" to "+done); }
+			} finally {
+				synchronized (InventoryIndex.class) { recording.remove(done.getName()); }
+			}
+		}
+
+		/** abort()
+		* The export failed, a part of it is not indexed.
+		*/
+		public void abort() {
+			try { out.close(); } catch (IOException ex) { }
+			file.delete();
+			synchronized (InventoryIndex.class) { recording.remove(file.getName().substring(0, file.getName().length() - 4)); }
+		}
+	}
+
+	/** record(Appliance, String)
+	* Start spooling the gateways of an export to the index directory.
+	* param - appliance - the appliance information from the root export.xml.
+	* param - zip - the export zip file.
+	* return - Run - add each domain to it, or null when -index is not used.
+	*/
+	public static Run record(Appliance appliance, String zip) throws IOException {
+		if (INDEX_DIR == null) { return null; }
+		Run run = new Run();
+		run.dir = new File(INDEX_DIR);
+		run.dir.mkdirs();
+		Date now = new Date();
+		int sequence;
+		synchronized (InventoryIndex.class) { sequence = ++runSequence; }
+		// The name sorts in the order the runs were made, it is the order commit() adds them in.
+		String name = new SimpleDateFormat("yyyyMMddHHmmssSSS").format(now)+"-"+String.format("%06d", sequence)+"-"
+			+appliance.deviceName.replaceAll("[^A-Za-z0-9._-]", "_")+RUN_SUFFIX;
+		run.file = new File(run.dir, name+".tmp");
+		run.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run.file), ConfigInventory.BUFFER_SIZE));
+		run.out.writeInt(MAGIC);
+		run.out.writeInt(VERSION);
+		str(run.out, appliance.deviceName);
+		str(run.out, new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(now));
+		str(run.out, new File(zip).getAbsolutePath());
+		synchronized (InventoryIndex.class) { recording.put(name, device(name)); }
+		return run;
+	}
+
+	/** device(String)
+	* return - String - the device part of a .run file name.
+	*/
+	static String device(String name) {
+		return name.substring(name.indexOf('-', name.indexOf('-') + 1) + 1);
+	}
+
+	/** commit(String)
+	* Merge the .run files in the index directory into inventory.idx. The new index is written next to
+	* the old one and renamed over it, so a query running at the same time sees one or the other.
+	* The last run added for a device is what is on it now, so a run is held back while a run of the
+	* same device that was started before it is still being recorded, i.e. with -watch -parallel. It
+	* is added with that one, in the order they were started.
+	* param - dir - the index directory.
+	* return - int - the number of runs added.
+	*/
+	public static int commit(String dir) throws IOException {
+		File indexDir = new File(dir);
+		indexDir.mkdirs();
+		RandomAccessFile lockFile = new RandomAccessFile(new File(indexDir, "index.lock"), "rw");
+		FileLock lock = lockFile.getChannel().lock();
+		try {
+			// Taken before the directory is listed, a run that finishes in between is still held back for.
+			Map<String, String> started;
+			synchronized (InventoryIndex.class) { started = new HashMap<String, String>(recording); }
+			File[] pending = indexDir.listFiles(new FilenameFilter() {
+				public boolean accept(File d, String name) { return name.endsWith(RUN_SUFFIX); }
+			});
+			if (pending == null) { return 0; }
+			List<File> ready = new ArrayList<File>();
+			for (File run : pending) {
+				boolean earlier = false;
+				for (Map.Entry<String, String> other : started.entrySet()) {
+					if (other.getKey().compareTo(run.getName()) < 0 && other.getValue().equals(device(run.getName()))) { earlier = true; }
+				}
+				if (!earlier) { ready.add(run); }
+			}
+			pending = ready.toArray(new File[ready.size()]);
+			if (pending.length == 0) { return 0; }
+			Arrays.sort(pending);
+			File indexFile = new File(indexDir, INDEX_FILE);
+			InventoryIndex old = indexFile.exists() ? open(dir) : null;
+			try {
+				new Merge(old).write(pending, new File(indexDir, INDEX_FILE+".tmp"));
+			} finally {
+				if (old != null) { old.close(); }
+			}
+			File tmp = new File(indexDir, INDEX_FILE+".tmp");
+			if (!tmp.renameTo(indexFile)) {
+				indexFile.delete();
+				if (!tmp.renameTo(indexFile)) { throw new IOException("Could not replace "+indexFile); }
+			}
+			for (File run : pending) { run.delete(); }
+			return pending.length;
+		} finally {
+			lock.release();
+			lockFile.close();
+		}
+	}
+
+	// A new document made by commit().
+	static class Doc {
+		int[] intervals;
+		byte[] body;
+	}
+
+	// The work of commit(), the old index with the new runs added.
+	static class Merge {
+		InventoryIndex old;
+		int oldDocs;
+		long[] oldStarts;
+		List<String[]> runs = new ArrayList<String[]>();
+		Map<String, Integer> latest = new HashMap<String, Integer>();
+		// The documents of each device as of its last run, by domain, type, name and details
+		Map<String, Map<String, Integer>> current = new HashMap<String, Map<String, Integer>>();
+		// The runs of the documents that were seen again, and the new documents
+		Map<Integer, int[]> intervals = new HashMap<Integer, int[]>();
+		List<Doc> docs = new ArrayList<Doc>();
+		TreeMap<String, List<Integer>> postings = new TreeMap<String, List<Integer>>();
+
+		Merge(InventoryIndex old) throws IOException {
+			this.old = old;
+			if (old == null) { return; }
+			oldDocs = old.docCount;
+			oldStarts = new long[oldDocs + 1];
+			DataInputStream table = old.stream(old.docOffsets, old.docOffsets + 8L * oldDocs);
+			try {
+				for (int d = 0; d < oldDocs; d++) { oldStarts[d] = table.readLong(); }
+			} finally {
+				table.close();
+			}
+			oldStarts[oldDocs] = old.docOffsets;
+			runs.addAll(old.runs);
+			latest.putAll(old.latest);
+			// Find the documents that are on each device as of its last run.
+			DataInputStream in = old.stream(0, old.docOffsets);
+			try {
+				for (int d = 0; d < oldDocs; d++) {
+					int[] runPairs = new int[in.readInt() * 2];
+					for (int i = 0; i < runPairs.length; i++) { runPairs[i] = in.readInt(); }
+					String device = str(in);
+					String key = key(str(in), str(in), str(in), in);
+					Integer last = latest.get(device);
+					if (last != null && runPairs[runPairs.length - 1] == last) {
+						devices(device).put(key, d);
+						intervals.put(d, runPairs);
+					}
+				}
+			} finally {
+				in.close();
+			}
+		}
+
+		Map<String, Integer> devices(String device) {
+			Map<String, Integer> docs = current.get(device);
+			if (docs == null) { docs = new HashMap<String, Integer>(); current.put(device, docs); }
+			return docs;
+		}
+
+		/** add(File)
+		* Add the gateways of a .run file as the next run.
+		*/
+		void add(File file) throws IOException {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), ConfigInventory.BUFFER_SIZE));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+					System.out.println("ERROR :: "+file+" is not a run of this version and is dropped");
+					return;
+				}
+				String device = str(in);
+				String date = str(in);
+				String zip = str(in);
+				int run = runs.size();
+				runs.add(new String[] {device, date, zip});
+				Integer previous = latest.get(device);
+				latest.put(device, run);
+				Map<String, Integer> before = devices(device);
+				Map<String, Integer> after = new HashMap<String, Integer>();
+				while (in.readBoolean()) {
+					String domain = str(in);
+					int gateways = in.readInt();
+					for (int g = 0; g < gateways; g++) {
+						String type = str(in);
+						String name = str(in);
+						List<String[]> details = new ArrayList<String[]>();
+						int count = in.readInt();
+						for (int i = 0; i < count; i++) { details.add(new String[] {str(in), str(in)}); }
+						String key = key(domain, type, name, details);
+						Integer doc = before.get(key);
+						if (doc != null && previous != null) {
+							// Unchanged since the last run of the device, it is seen for one more run.
+							int[] runPairs = intervals.get(doc);
+							if (runPairs[runPairs.length - 1] == previous) { runPairs[runPairs.length - 1] = run; }
+						} else if ((doc = after.get(key)) == null) {
+							doc = newDoc(run, device, domain, type, name, details);
+						}
+						after.put(key, doc);
+					}
+				}
+				current.put(device, after);
+			} finally {
+				in.close();
+			}
+		}
+
+		int newDoc(int run, String device, String domain, String type, String name, List<String[]> details) throws IOException {
+			int id = oldDocs + docs.size();
+			Doc doc = new Doc();
+			doc.intervals = new int[] {run, run};
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			str(out, device);
+			str(out, domain);
+			str(out, type);
+			str(out, name);
+			out.writeInt(details.size());
+			for (String[] detail : details) { str(out, detail[0]); str(out, detail[1]); }
+			out.close();
+			doc.body = bytes.toByteArray();
+			docs.add(doc);
+			intervals.put(id, doc.intervals);
+
+			Set<String> terms = new LinkedHashSet<String>();
+			terms.add(term("device:", device));
+			terms.add(term("domain:", domain));
+			terms.add(term("type:", type));
+			terms.add(term("name:", name));
+			for (String[] detail : details) {
+				terms.add(term(detail[0]+"=", detail[1]));
+				terms.add(term("*=", detail[1]));
+				int dot = detail[0].lastIndexOf('.');
+				if (dot >= 0) { terms.add(term(detail[0].substring(dot + 1)+"=", detail[1])); }
+			}
+			for (String term : terms) {
+				List<Integer> list = postings.get(term);
+				if (list == null) { list = new ArrayList<Integer>(); postings.put(term, list); }
+				list.add(id);
+			}
+			return id;
+		}
+
+		/** write(File[], File)
+		* Add the runs and write the new index.
+		*/
+		void write(File[] pending, File to) throws IOException {
+			for (File run : pending) { add(run); }
+			CountingStream counter = new CountingStream(new BufferedOutputStream(new FileOutputStream(to), 65536));
+			DataOutputStream out = new DataOutputStream(counter);
+			try {
+				int docTotal = oldDocs + docs.size();
+				long[] docStarts = new long[docTotal];
+				DataInputStream in = (old == null) ? null : old.stream(0, old.docOffsets);
+				try {
+					for (int d = 0; d < oldDocs; d++) {
+						docStarts[d] = counter.count;
+						int[] runPairs = new int[in.readInt() * 2];
+						for (int i = 0; i < runPairs.length; i++) { runPairs[i] = in.readInt(); }
+						byte[] body = new byte[(int) (oldStarts[d + 1] - oldStarts[d]) - 4 - runPairs.length * 4];
+						in.readFully(body);
+						writeDoc(out, intervals.containsKey(d) ? intervals.get(d) : runPairs, body);
+					}
+				} finally {
+					if (in != null) { in.close(); }
+				}
+				for (int d = 0; d < docs.size(); d++) {
+					docStarts[oldDocs + d] = counter.count;
+					writeDoc(out, docs.get(d).intervals, docs.get(d).body);
+				}
+				long docTable = counter.count;
+				for (long start : docStarts) { out.writeLong(start); }
+
+				// The old terms and the new ones are both sorted, so they are merged as they are written.
+				List<Long> termStarts = new ArrayList<Long>();
+				in = (old == null) ? null : old.stream(old.docOffsets + 8L * old.docCount, old.termOffsets);
+				try {
+					Iterator<Map.Entry<String, List<Integer>>> added = postings.entrySet().iterator();
+					Map.Entry<String, List<Integer>> next = added.hasNext() ? added.next() : null;
+					for (int t = 0; old != null && t <= old.termCount; t++) {
+						String term = (t < old.termCount) ? str(in) : null;
+						while (next != null && (term == null || next.getKey().compareTo(term) < 0)) {
+							termStarts.add(counter.count);
+							writeTerm(out, next.getKey(), new int[0], next.getValue());
+							next = added.hasNext() ? added.next() : null;
+						}
+						if (term == null) { break; }
+						int[] ids = readPostings(in);
+						List<Integer> more = (next != null && next.getKey().equals(term)) ? next.getValue() : null;
+						if (more != null) { next = added.hasNext() ? added.next() : null; }
+						termStarts.add(counter.count);
+						writeTerm(out, term, ids, more);
+					}
+					while (next != null) {
+						termStarts.add(counter.count);
+						writeTerm(out, next.getKey(), new int[0], next.getValue());
+						next = added.hasNext() ? added.next() : null;
+					}
+				} finally {
+					if (in != null) { in.close(); }
+				}
+				long termTable = counter.count;
+				for (long start : termStarts) { out.writeLong(start); }
+
+				long runTable = counter.count;
+				for (String[] run : runs) { str(out, run[0]); str(out, run[1]); str(out, run[2]); }
+
+				out.writeLong(docTable);
+				out.writeInt(docTotal);
+				out.writeLong(termTable);
+				out.writeInt(termStarts.size());
+				out.writeLong(runTable);
+				out.writeInt(runs.size());
+				out.writeInt(VERSION);
+				out.writeInt(MAGIC);
+			} finally {
+				out.close();
+			}
+		}
+
+		static void writeDoc(DataOutputStream out, int[] runPairs, byte[] body) throws IOException {
+			out.writeInt(runPairs.length / 2);
+			for (int run : runPairs) { out.writeInt(run); }
+			out.write(body);
+		}
+
+		static void writeTerm(DataOutputStream out, String term, int[] ids, List<Integer> more) throws IOException {
+			str(out, term);
+			out.writeInt(ids.length + (more == null ? 0 : more.size()));
+			int last = 0;
+			for (int id : ids) { varint(out, id - last); last = id; }
+			if (more != null) { for (int id : more) { varint(out, id - last); last = id; } }
+		}
+	}
+
+	// ******
+	// Reading.
+	// ******
+
+	/** open(String)
+	* Open the index in a directory for queries.
+	* param - dir - the index directory.
+	* return - InventoryIndex - close() it when done.
+	*/
+	public static InventoryIndex open(String dir) throws IOException {
+		File indexFile = new File(dir, INDEX_FILE);
+		if (!indexFile.exists()) { throw new FileNotFoundException("There is no index in "+dir+", inventory with -index "+dir+" first"); }
+		InventoryIndex index = new InventoryIndex();
+		index.file = new RandomAccessFile(indexFile, "r");
+		try {
+			long length = index.file.length();
+			DataInputStream footer = index.record(length - FOOTER, length);
+			index.docOffsets = footer.readLong();
+			index.docCount = footer.readInt();
+			index.termOffsets = footer.readLong();
+			index.termCount = footer.readInt();
+			long runTable = footer.readLong();
+			int runCount = footer.readInt();
+			if (footer.readInt() != VERSION || footer.readInt() != MAGIC) { throw new IOException(indexFile+" is not an index of this version, remove it and inventory again"); }
+			DataInputStream in = index.stream(runTable, length - FOOTER);
+			try {
+				for (int r = 0; r < runCount; r++) {
+					String[] run = {str(in), str(in), str(in)};
+					index.runs.add(run);
+					index.latest.put(run[0], r);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException ex) {
+			index.close();
+			throw ex;
+		}
+		return index;
+	}
+
+	/** query(boolean, String...)
+	* Find the gateways that match every one of the terms.
+	* param - history - false for the gateways on each device as of its last run, true for every gateway
+	*                   that was ever seen.
+	* param - terms - Attribute=value, =value for any attribute, device:, domain:, type: or name: and
+	*                 a name. They are not case sensitive, a value ending in * matches the start of it.
+	* return - List<Hit> - the gateways, in the order they were first seen.
+	*/
+	public synchronized List<Hit> query(boolean history, String... terms) throws IOException {
+		List<int[]> lists = new ArrayList<int[]>();
+		for (String term : terms) { lists.add(lookup(normalize(term))); }
+		// The shortest list first, there is less to check the others against.
+		Collections.sort(lists, new Comparator<int[]>() {
+			public int compare(int[] a, int[] b) { return a.length - b.length; }
+		});
+		int[] ids = lists.isEmpty() ? new int[0] : lists.get(0);
+		for (int i = 1; i < lists.size(); i++) { ids = intersect(ids, lists.get(i)); }
+
+		List<Hit> hits = new ArrayList<Hit>();
+		for (int id : ids) {
+			Hit hit = doc(id);
+			if (history || hit.current) { hits.add(matched(hit, terms)); }
+		}
+		return hits;
+	}
+
+	/** runs()
+	* return - List<String[]> - the {device, date, zip} of each export in the index, oldest first.
+	*/
+	public List<String[]> runs() {
+		return runs;
+	}
+
+	/** normalize(String)
+	* return - String - a query term the way it is stored, i.e. "LocalPort=443" is "localport=443".
+	*/
+	static String normalize(String term) {
+		int equals = term.indexOf('=');
+		int colon = term.indexOf(':');
+		if (equals == 0) { return term("*=", term.substring(1)); }
+		if (equals > 0 && (colon < 0 || equals < colon)) { return term(term.substring(0, equals + 1), term.substring(equals + 1)); }
+		if (colon > 0) { return term(term.substring(0, colon + 1), term.substring(colon + 1)); }
+		return term("*=", term);
+	}
+
+	static String term(String field, String value) {
+		return field.toLowerCase(Locale.ROOT)+value.toLowerCase(Locale.ROOT);
+	}
+
+	/** lookup(String)
+	* return - int[] - the documents with the term, or with any term starting with it when it ends in *.
+	*/
+	int[] lookup(String term) throws IOException {
+		boolean prefix = term.endsWith("*");
+		String key = prefix ? term.substring(0, term.length() - 1) : term;
+		// The first term that is not less than the key.
+		int low = 0, high = termCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (termAt(mid).compareTo(key) < 0) { low = mid + 1; } else { high = mid; }
+		}
+		if (!prefix) {
+			if (low == termCount || !termAt(low).equals(key)) { return new int[0]; }
+			return postingsAt(low);
+		}
+		int[] ids = new int[0];
+		for (int t = low; t < termCount && termAt(t).startsWith(key); t++) { ids = union(ids, postingsAt(t)); }
+		return ids;
+	}
+
+	String termAt(int t) throws IOException {
+		long start = longAt(termOffsets + 8L * t);
+		int length = record(start, start + 4).readInt();
+		byte[] bytes = bytes(start + 4, length);
+		return new String(bytes, UTF8);
+	}
+
+	int[] postingsAt(int t) throws IOException {
+		long start = longAt(termOffsets + 8L * t);
+		long end = (t + 1 < termCount) ? longAt(termOffsets + 8L * (t + 1)) : termOffsets;
+		DataInputStream in = record(start, end);
+		str(in);
+		return readPostings(in);
+	}
+
+	/** doc(int)
+	* return - Hit - a document, with the dates of the first and last run it was seen in.
+	*/
+	Hit doc(int id) throws IOException {
+		DataInputStream in = record(docStart(id), docStart(id + 1));
+		int[] runPairs = new int[in.readInt() * 2];
+		for (int i = 0; i < runPairs.length; i++) { runPairs[i] = in.readInt(); }
+		Hit hit = new Hit();
+		hit.device = str(in);
+		hit.domain = str(in);
+		hit.type = str(in);
+		hit.name = str(in);
+		int details = in.readInt();
+		for (int i = 0; i < details; i++) { hit.details.add(new String[] {str(in), str(in)}); }
+		hit.firstSeen = runs.get(runPairs[0])[1];
+		hit.lastSeen = runs.get(runPairs[runPairs.length - 1])[1];
+		hit.current = latest.get(hit.device) == runPairs[runPairs.length - 1];
+		return hit;
+	}
+
+	/** matched(Hit, String[])
+	* Fill in the details of a hit that match the attribute terms of the query.
+	*/
+	static Hit matched(Hit hit, String[] terms) {
+		for (String[] detail : hit.details) {
+			String attribute = detail[0];
+			int dot = attribute.lastIndexOf('.');
+			String[] names = (dot < 0) ? new String[] {attribute, "*"} : new String[] {attribute, attribute.substring(dot + 1), "*"};
+			boolean match = false;
+			for (String term : terms) {
+				String query = normalize(term);
+				if (query.indexOf('=') < 0) { continue; }
+				boolean prefix = query.endsWith("*");
+				String key = prefix ? query.substring(0, query.length() - 1) : query;
+				for (String name : names) {
+					String stored = term(name+"=", detail[1]);
+					if (prefix ? stored.startsWith(key) : stored.equals(key)) { match = true; }
+				}
+			}
+			if (match) { hit.matched.add(detail); }
+		}
+		return hit;
+	}
+
+	long docStart(int id) throws IOException {
+		return (id == docCount) ? docOffsets : longAt(docOffsets + 8L * id);
+	}
+
+	long longAt(long position) throws IOException {
+		return record(position, position + 8).readLong();
+	}
+
+	DataInputStream record(long start, long end) throws IOException {
+		return new DataInputStream(new ByteArrayInputStream(bytes(start, (int) (end - start))));
+	}
+
+	byte[] bytes(long start, int length) throws IOException {
+		byte[] bytes = new byte[length];
+		file.seek(start);
+		file.readFully(bytes);
+		return bytes;
+	}
+
+	/** stream(long, long)
+	* return - DataInputStream - a part of the index file read from start to end, for commit().
+	*/
+	DataInputStream stream(long start, long end) throws IOException {
+		final RandomAccessFile raf = file;
+		final long[] position = {start};
+		final long limit = end;
+		return new DataInputStream(new BufferedInputStream(new InputStream() {
+			public int read() throws IOException {
+				byte[] one = new byte[1];
+				return (read(one, 0, 1) < 0) ? -1 : one[0] & 0xff;
+			}
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (position[0] >= limit) { return -1; }
+				len = (int) Math.min(len, limit - position[0]);
+				raf.seek(position[0]);
+				int n = raf.read(b, off, len);
+				if (n > 0) { position[0] += n; }
+				return n;
+			}
+		}, 65536));
+	}
+
+	public void close() throws IOException {
+		if (file != null) { file.close(); }
+	}
+
+	static int[] readPostings(DataInputStream in) throws IOException {
+		int[] ids = new int[in.readInt()];
+		int last = 0;
+		for (int i = 0; i < ids.length; i++) { last += varint(in); ids[i] = last; }
+		return ids;
+	}
+
+	static int[] intersect(int[] a, int[] b) {
+		int[] out = new int[Math.min(a.length, b.length)];
+		int n = 0;
+		for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+			if (a[i] < b[j]) { i++; } else if (a[i] > b[j]) { j++; } else { out[n++] = a[i]; i++; j++; }
+		}
+		return Arrays.copyOf(out, n);
+	}
+
+	static int[] union(int[] a, int[] b) {
+		int[] out = new int[a.length + b.length];
+		int n = 0, i = 0, j = 0;
+		while (i < a.length || j < b.length) {
+			if (j == b.length || (i < a.length && a[i] < b[j])) { out[n++] = a[i++]; }
+			else if (i == a.length || b[j] < a[i]) { out[n++] = b[j++]; }
+			else { out[n++] = a[i++]; j++; }
+		}
+		return Arrays.copyOf(out, n);
+	}
+
+	static String key(String domain, String type, String name, DataInputStream in) throws IOException {
+		List<String[]> details = new ArrayList<String[]>();
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) { details.add(new String[] {str(in), str(in)}); }
+		return key(domain, type, name, details);
+	}
+
+	static String key(String domain, String type, String name, List<String[]> details) {
+		StringBuilder sb = new StringBuilder(domain).append('\0').append(type).append('\0').append(name);
+		for (String[] detail : details) { sb.append('\0').append(detail[0]).append('\0').append(detail[1]); }
+		return sb.toString();
+	}
+
+	static void str(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = (value == null ? "" : value).getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String str(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	static void varint(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) { out.write((value & 0x7f) | 0x80); value >>>= 7; }
+		out.write(value);
+	}
+
+	static int varint(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) { return value; }
+		}
+	}
+
+	// Keeps track of where in the new index file the next byte goes.
+	static class CountingStream extends FilterOutputStream {
+		long count = 0;
+
+		CountingStream(OutputStream out) { super(out); }
+
+		public void write(int b) throws IOException { out.write(b); count++; }
+
+		public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); count += len; }
+	}
+
+	/** main()
+	* Query the index from the command line.
+	*/
+	public static void main(String arg[]) throws Exception {
+		boolean history = false;
+		boolean listRuns = false;
+		List<String> terms = new ArrayList<String>();
+		for (int i = 1; i < arg.length; i++) {
+			if (arg[i].equals("-history")) { history = true; }
+			else if (arg[i].equals("-runs")) { listRuns = true; }
+			else { terms.add(arg[i]); }
+		}
+		if (arg.length < 1 || (terms.isEmpty() && !listRuns)) {
+			usage();
+			System.exit(0);
+		}
+
+		long start = System.nanoTime();
+		InventoryIndex index = open(arg[0]);
+		try {
+			if (listRuns) {
+				System.out.println("Device,Date,Export");
+				for (String[] run : index.runs()) { System.out.println(CsvSink.quote(run[0])+","+CsvSink.quote(run[1])+","+CsvSink.quote(run[2])); }
+				if (terms.isEmpty()) { return; }
+			}
+			List<Hit> hits = index.query(history, terms.toArray(new String[terms.size()]));
+			System.out.println("Device,Domain,Gateway Type,Gateway Name,Attribute,Attribute Value,First Seen,Last Seen");
+			for (Hit hit : hits) {
+				String gateway = CsvSink.quote(hit.device)+","+CsvSink.quote(hit.domain)+","+CsvSink.quote(hit.type)+","+CsvSink.quote(hit.name);
+				String seen = CsvSink.quote(hit.firstSeen)+","+CsvSink.quote(hit.current ? "" : hit.lastSeen);
+				if (hit.matched.isEmpty()) { System.out.println(gateway+",,,"+seen); }
+				for (String[] detail : hit.matched) {
+					System.out.println(gateway+","+CsvSink.quote(detail[0])+","+CsvSink.quote(detail[1])+","+seen);
+				}
+			}
+			System.err.println(hits.size()+" gateways in "+InventoryMetrics.ms(System.nanoTime() - start)+" ms");
+		} finally {
+			index.close();
+		}
+	}
+
+	static void usage() {
+		System.out.println("Usage: java InventoryIndex indexDir [-history] [-runs] term...");
+		System.out.println("    Where:");
+		System.out.println("          indexDir = The directory given to ConfigInventory with -index");
+		System.out.println("          term     = Attribute=value  a detail, i.e. BackendUrl=http://backend:8080/ or LocalPort=443");
+		System.out.println("                     =value           a detail with any attribute");
+		System.out.println("                     device:NAME, domain:NAME, type:NAME or name:NAME   the gateway itself");
+		System.out.println("                     A value ending in * matches the start of it, i.e. BackendUrl=http://10.1.*");
+		System.out.println("                     Terms are not case sensitive, a gateway has to match all of them.");
+		System.out.println("          -history = Optional: Also list the gateways that are no longer on their device, Last Seen says when");
+		System.out.println("          -runs    = Optional: List the exports in the index");
+		System.out.println("Example > java InventoryIndex /data/index LocalPort=443 type:MultiProtocolGateway");
+	}
+}
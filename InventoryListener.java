@@ -0,0 +1,42 @@
+/**
+*   Module: InventoryListener.java
+*
+*   Description: What ConfigInventory.inventory() tells about an appliance export as it works
+*                through it. The appliance comes first, then each domain in domain list order.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.io.*;
+import java.util.*;
+
+public interface InventoryListener {
+
+	/** appliance(Appliance)
+	* Called once the root export.xml has been read.
+	* param - appliance - the appliance information and the list of domains.
+	*/
+	void appliance(Appliance appliance) throws IOException;
+
+	/** domain(Appliance, String, List<Gateway>)
+	* Called for each domain once its export.xml has been parsed.
+	* param - appliance - the appliance the domain is on.
+	* param - domain - the domain name.
+	* param - gateways - the gateways in the domain in OBJECT_LIST order.
+	*/
+	void domain(Appliance appliance, String domain, List<Gateway> gateways) throws IOException;
+}
@@ -0,0 +1,460 @@
+/**
+*   Module: InventoryMetrics.java
+*
+*   Description: Timings and sizes of each stage of an inventory run. Every appliance export gets
+*                the time spent in each stage, and every domain in it gets its own stage times, the
+*                bytes of its zip and export.xml, the number of gateways and details found and the
+*                bytes it allocated. The stages are:
+*                   unzip      - extracting the appliance export, or reading the root export.xml with -stream
+*                   decompress - extracting the domain zip, or finding its export.xml with -stream
+*                                (with -stream the inflating itself happens as the xml is parsed)
+*                   parse      - the DomainParser pass over the domain export.xml
+*                   lookup     - following the references to the Front Side Handlers, and the -deps closures
+*                   write      - writing the domain to the output file
+*                At the end of the run the numbers, along with what the garbage collectors did, can
+*                be written as a JSON report with -metrics, with -pipeline it has the queue depth and
+*                the throughput of each stage of the pipeline too, see DomainPipeline. With -jfr each
+*                domain and stage is also a Java Flight Recorder event, see InventoryEvents. With
+*                -debug a line is printed for each domain as it is done.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.io.*;
+import java.lang.management.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+public class InventoryMetrics {
+	// The JSON report file, null for none, set with -metrics
+	public static String REPORT = null;
+
+	// Emit Java Flight Recorder events, set with -jfr
+	public static boolean JFR = false;
+
+	// The exports kept for the report, 0 for all of them. -watch keeps the last InventoryWatcher.KEEP.
+	public static int KEEP = 0;
+
+	static final String[] STAGES = {"unzip", "decompress", "parse", "lookup", "write"};
+
+	// Every appliance export worked on in this run, in the order they were started.
+	static final List<Export> exports = Collections.synchronizedList(new ArrayList<Export>());
+
+	// What the current thread is working on.
+	static final ThreadLocal<Export> currentExport = new ThreadLocal<Export>();
+	static final ThreadLocal<Domain> currentDomain = new ThreadLocal<Domain>();
+
+	// When the run started and what the garbage collectors had done by then.
+	static long runStart = System.nanoTime();
+	static String runDate = now();
+	static Map<String, long[]> gcStart = gcCounts();
+
+	/** enabled()
+	* return - boolean - true when anything is going to look at the numbers.
+	*/
+	public static boolean enabled() {
+		return REPORT != null || JFR || ConfigInventory.DEBUG || InventoryWatcher.PORT > 0;
+	}
+
+	/** open()
+	* Start the clock for the run, call it once the switches have been read.
+	*/
+	public static void open() {
+		runStart = System.nanoTime();
+		runDate = now();
+		gcStart = gcCounts();
+	}
+
+	/** begin(String)
+	* Start on an appliance export on the current thread.
+	* param - zip - the export zip file.
+	* return - Export - the numbers for the export, or null when metrics are off.
+	*/
+	public static Export begin(String zip) {
+		if (!enabled()) { return null; }
+		Export export = new Export();
+		export.zip = zip;
+		export.thread = Thread.currentThread().getId();
+		export.startNanos = System.nanoTime();
+		export.startAllocated = allocatedBytes();
+		synchronized (exports) {
+			exports.add(export);
+			while (KEEP > 0 && exports.size() > KEEP) { exports.remove(0); }
+		}
+		currentExport.set(export);
+		return export;
+	}
+
+	/** end(Export)
+	* The appliance export is done, or failed.
+	*/
+	public static void end(Export export) {
+		if (export == null) { return; }
+		export.nanos = System.nanoTime() - export.startNanos;
+		export.allocated += allocatedBytes() - export.startAllocated;
+		currentExport.remove();
+		if (ConfigInventory.DEBUG) {
+			System.out.println("DEBUG :: "+export.device+" took "+ms(export.nanos)+" ms "+export.stageSummary()+" allocated "+(export.allocated >> 20)+" MB");
+		}
+	}
+
+	/** start(String)
+	* Start timing a stage of whatever the current thread is working on.
+	* param - stage - one of STAGES.
+	* return - Stage - pass it to end(), it is null when metrics are off.
+	*/
+	public static Stage start(String stage) {
+		Domain domain = currentDomain.get();
+		Export export = (domain != null) ? domain.export : currentExport.get();
+		return (export == null) ? null : new Stage(stage, export, domain);
+	}
+
+	/** start(Export, String, String)
+	* Start timing a stage of a domain that is not the one the current thread is working on.
+	*/
+	public static Stage start(Export export, String domain, String stage) {
+		return (export == null) ? null : new Stage(stage, export, export.domain(domain));
+	}
+
+	/** end(Stage)
+	* The stage is done.
+	*/
+	public static void end(Stage stage) {
+		if (stage == null) { return; }
+		long nanos = System.nanoTime() - stage.startNanos;
+		stage.export.add(stage.name, nanos);
+		if (stage.domain != null) { stage.domain.add(stage.name, nanos); }
+		if (stage.event != null) { InventoryEvents.commit(stage.event, stage.export, stage.domain, stage.name); }
+	}
+
+	/** count(InputStream)
+	* Count the bytes read from a domain export.xml.
+	* return - InputStream - the stream, wrapped when the current thread is working on a domain.
+	*/
+	public static InputStream count(InputStream in) {
+		final Domain domain = currentDomain.get();
+		if (domain == null) { return in; }
+		return new FilterInputStream(in) {
+			public int read() throws IOException {
+				int b = super.read();
+				if (b >= 0) { domain.xmlBytes++; }
+				return b;
+			}
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if (n > 0) { domain.xmlBytes += n; }
+				return n;
+			}
+		};
+	}
+
+	/** zipBytes(long)
+	* Set the size of the zip file of the domain the current thread is working on.
+	*/
+	public static void zipBytes(long bytes) {
+		Domain domain = currentDomain.get();
+		if (domain != null) { domain.zipBytes = bytes; }
+	}
+
+	/** writeReport()
+	* Write the JSON report for the run to REPORT.
+	*/
+	public static void writeReport() throws IOException {
+		if (REPORT == null) { return; }
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(REPORT), "UTF-8"));
+		try {
+			out.write(report());
+		} finally {
+			out.close();
+		}
+	}
+
+	/** report()
+	* return - String - the JSON report for the run so far.
+	*/
+	public static String report() {
+		StringBuilder sb = new StringBuilder("{\n");
+		field(sb, "  ", "started").append(quote(runDate)).append(",\n");
+		field(sb, "  ", "totalMs").append(ms(System.nanoTime() - runStart)).append(",\n");
+		field(sb, "  ", "threads").append(ConfigInventory.THREADS).append(",\n");
+		field(sb, "  ", "stream").append(ConfigInventory.STREAM).append(",\n");
+		field(sb, "  ", "pipeline").append(DomainPipeline.PIPELINE).append(",\n");
+		field(sb, "  ", "details").append(ConfigInventory.DETAILS).append(",\n");
+
+		// What the garbage collectors did during the run, and how big the heap got.
+		field(sb, "  ", "gc").append("[");
+		Map<String, long[]> gcEnd = gcCounts();
+		boolean first = true;
+		for (Map.Entry<String, long[]> gc : gcEnd.entrySet()) {
+			long[] start = gcStart.containsKey(gc.getKey()) ? gcStart.get(gc.getKey()) : new long[2];
+			sb.append(first ? "\n" : ",\n");
+			first = false;
+			sb.append("    {");
+			field(sb, "", "name").append(quote(gc.getKey())).append(", ");
+			field(sb, "", "collections").append(gc.getValue()[0] - start[0]).append(", ");
+			field(sb, "", "ms").append(gc.getValue()[1] - start[1]).append("}");
+		}
+		sb.append(first ? "],\n" : "\n  ],\n");
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) { peak += pool.getPeakUsage().getUsed(); }
+		}
+		field(sb, "  ", "heapUsedBytes").append(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed()).append(",\n");
+		field(sb, "  ", "heapPeakBytes").append(peak).append(",\n");
+		field(sb, "  ", "heapMaxBytes").append(Runtime.getRuntime().maxMemory()).append(",\n");
+
+		field(sb, "  ", "exports").append("[");
+		Export[] list;
+		synchronized (exports) { list = exports.toArray(new Export[exports.size()]); }
+		for (int e = 0; e < list.length; e++) {
+			sb.append(e == 0 ? "\n" : ",\n");
+			list[e].json(sb);
+		}
+		sb.append(list.length == 0 ? "]\n" : "\n  ]\n");
+		return sb.append("}\n").toString();
+	}
+
+	// The numbers for one appliance export.
+	public static class Export {
+		String zip;
+		String device;
+		long thread;
+		long startNanos;
+		long nanos;
+		long startAllocated;
+		long allocated;
+		Map<String, long[]> stages = new LinkedHashMap<String, long[]>();
+		Map<String, Domain> domains = new LinkedHashMap<String, Domain>();
+		DomainPipeline pipeline;	// With -pipeline, the queue and the throughput of each stage
+
+		/** appliance(Appliance)
+		* The root export.xml has been read, the domains are listed in domain list order.
+		*/
+		public synchronized void appliance(Appliance appliance) {
+			device = appliance.deviceName;
+			for (String name : appliance.domains) { domain(name); }
+		}
+
+		/** domain(String)
+		* return - Domain - the numbers for a domain, they are created the first time it is asked for.
+		*/
+		public synchronized Domain domain(String name) {
+			Domain domain = domains.get(name);
+			if (domain == null) {
+				domain = new Domain();
+				domain.name = name;
+				domain.export = this;
+				domains.put(name, domain);
+			}
+			return domain;
+		}
+
+		synchronized void add(String stage, long nanos) {
+			long[] total = stages.get(stage);
+			if (total == null) { total = new long[2]; stages.put(stage, total); }
+			total[0]++;
+			total[1] += nanos;
+		}
+
+		synchronized String stageSummary() {
+			StringBuilder sb = new StringBuilder();
+			for (String stage : STAGES) {
+				long[] total = stages.get(stage);
+				if (total != null) { sb.append(sb.length() == 0 ? "(" : ", ").append(stage).append(' ').append(ms(total[1])).append(" ms"); }
+			}
+			return sb.length() == 0 ? "" : sb.append(')').toString();
+		}
+
+		synchronized void json(StringBuilder sb) {
+			sb.append("    {\n");
+			field(sb, "      ", "zip").append(quote(zip)).append(",\n");
+			field(sb, "      ", "device").append(quote(device)).append(",\n");
+			field(sb, "      ", "ms").append(ms(nanos)).append(",\n");
+			field(sb, "      ", "allocatedBytes").append(allocated).append(",\n");
+			field(sb, "      ", "stages").append("{");
+			boolean first = true;
+			for (Map.Entry<String, long[]> stage : stages.entrySet()) {
+				if (!first) { sb.append(", "); }
+				first = false;
+				field(sb, "", stage.getKey()).append("{");
+				field(sb, "", "count").append(stage.getValue()[0]).append(", ");
+				field(sb, "", "ms").append(ms(stage.getValue()[1])).append("}");
+			}
+			sb.append("},\n");
+			if (pipeline != null) { pipeline.json(field(sb, "      ", "pipeline")); sb.append(",\n"); }
+			field(sb, "      ", "domains").append("[");
+			first = true;
+			for (Domain domain : domains.values()) {
+				sb.append(first ? "\n" : ",\n");
+				first = false;
+				domain.json(sb);
+			}
+			sb.append(first ? "]\n" : "\n      ]\n");
+			sb.append("    }");
+		}
+	}
+
+	// The numbers for one domain.
+	public static class Domain {
+		Export export;
+		String name;
+		boolean cached;
+		long zipBytes;
+		long xmlBytes;
+		int objects;
+		int details;
+		long thread;
+		long startNanos;
+		long nanos;
+		long startAllocated;
+		long allocated;
+		Map<String, Long> stages = new LinkedHashMap<String, Long>();
+		Object event;
+
+		/** enter()
+		* The current thread starts work on the domain.
+		*/
+		public void enter() {
+			thread = Thread.currentThread().getId();
+			startNanos = System.nanoTime();
+			startAllocated = allocatedBytes();
+			if (JFR) { event = InventoryEvents.beginDomain(); }
+			currentDomain.set(this);
+		}
+
+		/** exit(List<Gateway>)
+		* The current thread is done with the domain.
+		* param - gateways - what was found in it, or null when it failed.
+		*/
+		public void exit(List<Gateway> gateways) {
+			currentDomain.remove();
+			nanos = System.nanoTime() - startNanos;
+			allocated = allocatedBytes() - startAllocated;
+			if (gateways != null) {
+				objects = gateways.size();
+				for (Gateway gateway : gateways) { details += gateway.details.size(); }
+			}
+			// With -threads the domain was not worked on by the thread that works on the export.
+			if (thread != export.thread) { synchronized (export) { export.allocated += allocated; } }
+			if (event != null) { InventoryEvents.commit(event, this); }
+			if (ConfigInventory.DEBUG) {
+				System.out.println("DEBUG :: "+name+" zip "+zipBytes+" bytes, xml "+xmlBytes+" bytes, "+objects+" gateways, "+details
+					+" details in "+ms(nanos)+" ms "+stageSummary()+" allocated "+(allocated >> 10)+" KB");
+			}
+		}
+
+		/** setCached(List<Gateway>)
+		* The domain is unchanged and comes from the cache.
+		* param - gateways - the gateways the cache has for it.
+		*/
+		public void setCached(List<Gateway> gateways) {
+			cached = true;
+			objects = gateways.size();
+			for (Gateway gateway : gateways) { details += gateway.details.size(); }
+		}
+
+		synchronized void add(String stage, long nanos) {
+			Long total = stages.get(stage);
+			stages.put(stage, (total == null) ? nanos : total + nanos);
+		}
+
+		synchronized String stageSummary() {
+			StringBuilder sb = new StringBuilder();
+			for (Map.Entry<String, Long> stage : stages.entrySet()) {
+				sb.append(sb.length() == 0 ? "(" : ", ").append(stage.getKey()).append(' ').append(ms(stage.getValue())).append(" ms");
+			}
+			return sb.length() == 0 ? "" : sb.append(')').toString();
+		}
+
+		synchronized void json(StringBuilder sb) {
+			sb.append("        {");
+			field(sb, "", "name").append(quote(name)).append(", ");
+			field(sb, "", "cached").append(cached).append(", ");
+			field(sb, "", "zipBytes").append(zipBytes).append(", ");
+			field(sb, "", "xmlBytes").append(xmlBytes).append(", ");
+			field(sb, "", "objects").append(objects).append(", ");
+			field(sb, "", "details").append(details).append(", ");
+			field(sb, "", "ms").append(ms(nanos)).append(", ");
+			field(sb, "", "allocatedBytes").append(allocated);
+			// The unzip stage is the whole export, not a domain.
+			for (int i = 1; i < STAGES.length; i++) {
+				String stage = STAGES[i];
+				sb.append(", ");
+				field(sb, "", stage+"Ms").append(ms(stages.containsKey(stage) ? stages.get(stage) : 0));
+			}
+			sb.append("}");
+		}
+	}
+
+	// A stage that is being timed.
+	public static class Stage {
+		String name;
+		Export export;
+		Domain domain;
+		long startNanos;
+		Object event;
+
+		Stage(String name, Export export, Domain domain) {
+			this.name = name;
+			this.export = export;
+			this.domain = domain;
+			if (JFR) { event = InventoryEvents.begin(); }
+			this.startNanos = System.nanoTime();
+		}
+	}
+
+	/** allocatedBytes()
+	* return - long - the bytes allocated by the current thread so far, 0 when the JVM can not tell.
+	*/
+	static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+			if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled()) {
+				return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return 0;
+	}
+
+	/** gcCounts()
+	* return - Map - the {collections, ms} of each garbage collector so far.
+	*/
+	static Map<String, long[]> gcCounts() {
+		Map<String, long[]> map = new LinkedHashMap<String, long[]>();
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			map.put(gc.getName(), new long[] {Math.max(0, gc.getCollectionCount()), Math.max(0, gc.getCollectionTime())});
+		}
+		return map;
+	}
+
+	static String ms(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	static String now() {
+		return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new java.util.Date());
+	}
+
+	static String quote(String value) {
+		return RecordWriter.quote(new StringBuilder(), value).toString();
+	}
+
+	static StringBuilder field(StringBuilder sb, String indent, String name) {
+		return RecordWriter.quote(sb.append(indent), name).append(": ");
+	}
+}
@@ -0,0 +1,318 @@
+/**
+*   Module: InventoryWatcher.java
+*
+*   Description: Keeps running and inventories each appliance export as it lands in a directory,
+*                set with -watch. The JVM, the compiled Catalog, the xml parser factory and the JIT
+*                are all warmed up once instead of once per export. A zip file is only picked up
+*                once its size and time have not changed for SETTLE_MS, so an export still being
+*                copied onto the share is not read half way. -parallel exports are worked on at the
+*                same time, and each one is written to its own file in the csvFile directory, named
+*                after the zip, as soon as it is done. The exports already in the directory are done
+*                when it starts. It runs until it is stopped, a running export is let finish and the
+*                -deps file, -metrics report and -index are closed off before the JVM exits.
+*
+*                With -http port it answers on http://localhost:port/ with
+*                   /health    - JSON with the exports done, failed, waiting and running
+*                   /metrics   - the -metrics report of the last KEEP exports
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+import com.sun.net.httpserver.*;
+
+public class InventoryWatcher {
+	// Keep running and inventory the exports as they land in zipFile, set with -watch
+	public static boolean WATCH = false;
+
+	// The port of the /health and /metrics endpoint on localhost, 0 for none, set with -http
+	public static int PORT = 0;
+
+	// How long a zip file has to stay the same size before it is read
+	public static long SETTLE_MS = 2000;
+
+	// The exports kept in the /metrics report
+	public static int KEEP = 100;
+
+	static volatile boolean running = true;
+	static WatchService watcher;
+	static final CountDownLatch stopped = new CountDownLatch(1);
+	static final Object commitLock = new Object();
+
+	// What the /health endpoint tells.
+	static final long started = System.currentTimeMillis();
+	static int done = 0;
+	static int failed = 0;
+	static int working = 0;
+	static String lastExport = null;
+	static String lastDone = null;
+	static String lastError = null;
+
+	// Zip files waiting to settle, {size, modified, when it was last seen to change}
+	static final Map<File, long[]> waiting = new HashMap<File, long[]>();
+	// The size and time of each zip file as it was when it was last inventoried, only for the zip
+	// files still in the directory.
+	static final Map<File, long[]> seen = new HashMap<File, long[]>();
+
+	/** watch(String, String, String)
+	* Watch a directory and inventory each export that lands in it, until the program is stopped.
+	* param - source - the directory the exports land in.
+	* param - tmp - the temporary directory, each export is extracted to its own folder under it.
+	* param - outDir - the directory the output file of each export is written to.
+	* return - String - the results of the run.
+	*/
+	public static String watch(String source, final String tmp, final String outDir) throws IOException {
+		final File dir = new File(source);
+		if (!dir.isDirectory()) { return "Nothing done, "+source+" is not a directory to watch"; }
+		new File(outDir).mkdirs();
+		InventoryMetrics.KEEP = KEEP;
+		HttpServer server = (PORT > 0) ? startServer(source) : null;
+
+		watcher = FileSystems.getDefault().newWatchService();
+		dir.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		final ExecutorService pool = Executors.newFixedThreadPool(FleetInventory.PARALLEL);
+		// The JVM exits once the hook returns, so the hook waits for the watch to be wound up below.
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() { InventoryWatcher.stop(); }
+		});
+		System.out.println("Watching "+source+" for exports, the output goes to "+outDir+(server == null ? "" : ", health on http://localhost:"+PORT+"/health"));
+
+		try {
+			scan(dir);
+			while (running) {
+				WatchKey key = watcher.poll(SETTLE_MS / 4, TimeUnit.MILLISECONDS);
+				if (key != null) {
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							// Events were lost, look at the whole directory again.
+							scan(dir);
+						} else {
+							File file = new File(dir, event.context().toString());
+							if (!isZip(file)) { continue; }
+							if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) { removed(file); } else { changed(file); }
+						}
+					}
+					key.reset();
+				}
+				for (final File export : settled()) {
+					if(ConfigInventory.DEBUG){ System.out.println("DEBUG :: "+export+" has landed"); }
+					synchronized (InventoryWatcher.class) { working++; }
+					pool.submit(new Runnable() {
+						public void run() { inventory(export, tmp, outDir); }
+					});
+				}
+			}
+		} catch (ClosedWatchServiceException | InterruptedException ex) {
+			// stop() was called.
+		} finally {
+			pool.shutdown();
+			try {
+				pool.awaitTermination(10, TimeUnit.MINUTES);
+			} catch (InterruptedException ex) {
+				pool.shutdownNow();
+			}
+			if (server != null) { server.stop(0); }
+			try {
+				ConfigInventory.finish();
+			} catch (Exception ex) {
+				System.out.println(":: ERROR ::");
+				ex.printStackTrace();
+			} finally {
+				stopped.countDown();
+			}
+		}
+		synchronized (InventoryWatcher.class) {
+			return "Stopped watching "+source+", "+done+" exports done, "+failed+" failed";
+		}
+	}
+
+	/** stop()
+	* Stop watching, and wait for the exports being worked on to finish and the run to be closed off.
+	*/
+	public static void stop() {
+		running = false;
+		try {
+			if (watcher != null) { watcher.close(); }
+			stopped.await(10, TimeUnit.MINUTES);
+		} catch (IOException | InterruptedException ex) {
+			// Stopping anyway.
+		}
+	}
+
+	/** inventory(File, String, String)
+	* The work for one export, on one of the -parallel threads.
+	*/
+	static void inventory(File export, String tmp, String outDir) {
+		String base = FleetInventory.baseName(export);
+		String extension = RecordWriter.extension();
+		String output = new File(outDir, base+extension).getPath();
+		long start = System.nanoTime();
+		synchronized (InventoryWatcher.class) { lastExport = export.getPath(); }
+		try {
+			// A new export with the same name replaces the output of the last one.
+			new File(RecordWriter.outputPath(output)).delete();
+			String written = ConfigInventory.writeInventory(export.getPath(), FleetInventory.exportTmp(tmp, export), output);
+			synchronized (commitLock) {
+				// The index is a single file, the exports are added to it one at a time.
+				if (InventoryIndex.INDEX_DIR != null) { InventoryIndex.commit(InventoryIndex.INDEX_DIR); }
+				if (InventoryMetrics.REPORT != null) { InventoryMetrics.writeReport(); }
+			}
+			synchronized (InventoryWatcher.class) {
+				done++;
+				lastDone = InventoryMetrics.now();
+			}
+			System.out.println("Done. "+export+" -> "+written+" in "+InventoryMetrics.ms(System.nanoTime() - start)+" ms");
+		} catch (Exception ex) {
+			synchronized (InventoryWatcher.class) {
+				failed++;
+				lastError = export+": "+ex;
+			}
+			System.out.println("ERROR :: "+export+" was skipped: "+ex);
+			if(ConfigInventory.DEBUG){ ex.printStackTrace(); }
+			// A run of the same device held back for this one can be added now, see InventoryIndex.commit().
+			synchronized (commitLock) {
+				try {
+					if (InventoryIndex.INDEX_DIR != null) { InventoryIndex.commit(InventoryIndex.INDEX_DIR); }
+				} catch (IOException e) {
+					System.out.println("ERROR :: The index in "+InventoryIndex.INDEX_DIR+" was not updated: "+e);
+				}
+			}
+		} finally {
+			synchronized (InventoryWatcher.class) { working--; }
+		}
+	}
+
+	/** scan(File)
+	* Look at every zip file in the directory, the ones that are new or changed wait to settle. The
+	* ones that are gone are forgotten, a delete event can be lost too.
+	*/
+	static void scan(File dir) {
+		File[] files = dir.listFiles();
+		if (files == null) { return; }
+		Set<File> zips = new HashSet<File>();
+		for (File file : files) {
+			if (isZip(file)) {
+				zips.add(file);
+				changed(file);
+			}
+		}
+		synchronized (InventoryWatcher.class) { seen.keySet().retainAll(zips); }
+	}
+
+	static boolean isZip(File file) {
+		return file.getName().toLowerCase().endsWith(".zip");
+	}
+
+	/** changed(File)
+	* A zip file was created or written to.
+	*/
+	static synchronized void changed(File file) {
+		long[] last = seen.get(file);
+		if (last != null && last[0] == file.length() && last[1] == file.lastModified()) { return; }
+		waiting.put(file, new long[] {file.length(), file.lastModified(), System.currentTimeMillis()});
+	}
+
+	/** removed(File)
+	* A zip file was deleted or moved away, it is forgotten.
+	*/
+	static synchronized void removed(File file) {
+		seen.remove(file);
+		waiting.remove(file);
+	}
+
+	/** settled()
+	* return - List<File> - the zip files that have not changed for SETTLE_MS, they stop waiting.
+	*/
+	static synchronized List<File> settled() {
+		List<File> ready = new ArrayList<File>();
+		long now = System.currentTimeMillis();
+		for (Iterator<Map.Entry<File, long[]>> it = waiting.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<File, long[]> entry = it.next();
+			File file = entry.getKey();
+			long[] last = entry.getValue();
+			if (!file.exists()) { it.remove(); continue; }
+			if (file.length() != last[0] || file.lastModified() != last[1]) {
+				// Still being written.
+				last[0] = file.length();
+				last[1] = file.lastModified();
+				last[2] = now;
+			} else if (now - last[2] >= SETTLE_MS) {
+				it.remove();
+				seen.put(file, new long[] {last[0], last[1]});
+				ready.add(file);
+			}
+		}
+		Collections.sort(ready);
+		return ready;
+	}
+
+	/** startServer(String)
+	* Start the /health and /metrics endpoint, it only listens on localhost.
+	*/
+	static HttpServer startServer(final String source) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT), 0);
+		server.createContext("/health", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException { reply(exchange, health(source)); }
+		});
+		server.createContext("/metrics", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException { reply(exchange, InventoryMetrics.report()); }
+		});
+		server.start();
+		return server;
+	}
+
+	static void reply(HttpExchange exchange, String json) throws IOException {
+		byte[] body = json.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(body);
+		} finally {
+			out.close();
+		}
+	}
+
+	/** health(String)
+	* return - String - the JSON for /health.
+	*/
+	static String health(String source) {
+		StringBuilder sb = new StringBuilder("{\n");
+		synchronized (InventoryWatcher.class) {
+			InventoryMetrics.field(sb, "  ", "status").append(InventoryMetrics.quote(running ? "UP" : "STOPPING")).append(",\n");
+			InventoryMetrics.field(sb, "  ", "watching").append(InventoryMetrics.quote(source)).append(",\n");
+			InventoryMetrics.field(sb, "  ", "started").append(InventoryMetrics.quote(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date(started)))).append(",\n");
+			InventoryMetrics.field(sb, "  ", "uptimeMs").append(System.currentTimeMillis() - started).append(",\n");
+			InventoryMetrics.field(sb, "  ", "done").append(done).append(",\n");
+			InventoryMetrics.field(sb, "  ", "failed").append(failed).append(",\n");
+			InventoryMetrics.field(sb, "  ", "waiting").append(waiting.size()).append(",\n");
+			InventoryMetrics.field(sb, "  ", "running").append(working).append(",\n");
+			InventoryMetrics.field(sb, "  ", "lastExport").append(lastExport == null ? "null" : InventoryMetrics.quote(lastExport)).append(",\n");
+			InventoryMetrics.field(sb, "  ", "lastDone").append(lastDone == null ? "null" : InventoryMetrics.quote(lastDone)).append(",\n");
+			InventoryMetrics.field(sb, "  ", "lastError").append(lastError == null ? "null" : InventoryMetrics.quote(lastError)).append(",\n");
+		}
+		Runtime runtime = Runtime.getRuntime();
+		InventoryMetrics.field(sb, "  ", "heapUsedBytes").append(runtime.totalMemory() - runtime.freeMemory()).append(",\n");
+		InventoryMetrics.field(sb, "  ", "heapMaxBytes").append(runtime.maxMemory()).append("\n");
+		return sb.append("}\n").toString();
+	}
+}
@@ -0,0 +1,93 @@
+/**
+*   Module: MemoryCeiling.java
+*
+*   Description: Keeps a run under a heap ceiling, set with -maxmem. A domain export.xml is read as
+*                a stream and only the objects in OBJECT_LIST are kept, so one domain needs little
+*                memory no matter how big its file is. What can still add up is many domains being
+*                worked on at the same time with -threads, and -fleet -parallel. Before a domain is
+*                started the heap that was still in use after the last garbage collection is checked,
+*                and while it is over three quarters of the ceiling the domain waits for the ones in
+*                progress to finish. One domain is always let through so a run can not stall.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.lang.management.*;
+
+public class MemoryCeiling {
+	// The heap in MB the run should stay under, 0 for no ceiling, set with -maxmem
+	public static int MAX_MB = 0;
+
+	static final Object lock = new Object();
+	static int inProgress = 0;
+	static long waits = 0;
+
+	/** acquire(String)
+	* Wait until there is room under the ceiling to start on a domain.
+	* param - domain - the name of the domain, for the DEBUG message.
+	*/
+	public static void acquire(String domain) throws InterruptedException {
+		synchronized (lock) {
+			boolean waited = false;
+			while (MAX_MB > 0 && inProgress > 0 && liveMb() > MAX_MB * 3 / 4) {
+				if (!waited && ConfigInventory.DEBUG) { System.out.println("DEBUG :: "+domain+" waits, "+liveMb()+" MB of the "+MAX_MB+" MB ceiling is in use"); }
+				waited = true;
+				lock.wait(100);
+			}
+			if (waited) { waits++; }
+			inProgress++;
+		}
+	}
+
+	/** release()
+	* A domain is done, let a waiting one start.
+	*/
+	public static void release() {
+		synchronized (lock) {
+			inProgress--;
+			lock.notifyAll();
+		}
+	}
+
+	/** liveMb()
+	* The heap still in use after the last garbage collection of each heap pool. It is what the live
+	* objects take, the garbage made since then is not counted. Before the first collection it is 0.
+	* return - long - the MB in use.
+	*/
+	static long liveMb() {
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() != MemoryType.HEAP) { continue; }
+			MemoryUsage usage = pool.getCollectionUsage();
+			if (usage != null) { used += usage.getUsed(); }
+		}
+		return used >> 20;
+	}
+
+	/** check()
+	* Warn when the JVM was given less heap than the ceiling.
+	*/
+	public static void check() {
+		if (MAX_MB <= 0) { return; }
+		long maxMb = Runtime.getRuntime().maxMemory() >> 20;
+		if (maxMb < MAX_MB) {
+			System.out.println("WARNING :: -maxmem "+MAX_MB+" is more than the "+maxMb+" MB heap, start java with -Xmx"+MAX_MB+"m");
+		} else if(ConfigInventory.DEBUG) {
+			System.out.println("DEBUG :: Heap ceiling "+MAX_MB+" MB of a "+maxMb+" MB heap");
+		}
+	}
+}
@@ -0,0 +1,378 @@
+/**
+*   Module: ParquetWriter.java
+*
+*   Description: Writes the flat records as an Apache Parquet file, for -format parquet. Each key
+*                field is an optional UTF8 column and each detail attribute is a repeated UTF8 column
+*                in a "details" group, the same shape as the jsonl records, so a gateway with three
+*                Front Side Handlers has three values in its FrontProtocol column and no joining.
+*
+*                The format is simple enough to write without the parquet libraries. Rows are held
+*                column by column in memory and every ROW_GROUP_ROWS rows they are written out as a
+*                row group with one data page per column. Values are PLAIN encoded, the repetition
+*                and definition levels are RLE, and each page is GZIP compressed. The footer is the
+*                file metadata in the Thrift compact protocol, the way parquet-format describes it.
+*                A Parquet file can not be added to, so a file is always written from the start.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.*;
+
+public class ParquetWriter implements Closeable {
+	// The most rows held in memory before they are written as a row group.
+	public static int ROW_GROUP_ROWS = 50000;
+
+	// The most bytes of values held in memory before they are written as a row group.
+	static final int ROW_GROUP_BYTES = 64 * 1024 * 1024;
+
+	static final byte[] MAGIC = {'P', 'A', 'R', '1'};
+
+	// parquet-format enums.
+	static final int BYTE_ARRAY = 6;
+	static final int REQUIRED = 0, OPTIONAL = 1, REPEATED = 2;
+	static final int UTF8 = 0;
+	static final int PLAIN = 0, RLE = 3;
+	static final int GZIP = 2;
+	static final int DATA_PAGE = 0;
+
+	// One column, its levels and values for the rows held.
+	static class Column {
+		String[] path;
+		boolean repeated;
+		ByteArrayOutputStream repetition = new ByteArrayOutputStream();	// one level per value, only when repeated
+		ByteArrayOutputStream definition = new ByteArrayOutputStream();	// one level per value, 0 is null or none
+		ByteArrayOutputStream values = new ByteArrayOutputStream();		// PLAIN, the values that are not null
+		int count;
+
+		// Where the column chunk of each row group was written, {offset, uncompressed, compressed, values}.
+		List<long[]> chunks = new ArrayList<long[]>();
+	}
+
+	String path;
+	OutputStream out;
+	long position = 0;
+	String[] keys;
+	String[] attributes;
+	Column[] columns;
+	int rows = 0;
+	int bytes = 0;
+	long totalRows = 0;
+	List<long[]> rowGroups = new ArrayList<long[]>();	// {rows, uncompressed bytes}
+
+	/** ParquetWriter(String, String[], String[])
+	* Create the file, anything already in it is replaced.
+	* param - path - the parquet file.
+	* param - keys - the names of the key columns.
+	* param - attributes - the names of the detail columns, none for no details group.
+	*/
+	public ParquetWriter(String path, String[] keys, String[] attributes) throws IOException {
+		this.path = path;
+		this.keys = keys;
+		this.attributes = attributes;
+		columns = new Column[keys.length + attributes.length];
+		for (int c = 0; c < columns.length; c++) {
+			columns[c] = new Column();
+			columns[c].repeated = c >= keys.length;
+			columns[c].path = columns[c].repeated ? new String[] {"details", attributes[c - keys.length]} : new String[] {keys[c]};
+		}
+		out = new BufferedOutputStream(new FileOutputStream(path), ConfigInventory.BUFFER_SIZE);
+		write(MAGIC);
+	}
+
+	/** add(String[], List<List<String>>)
+	* Add one row.
+	* param - keyValues - a value for each key column, null for none.
+	* param - details - the values of each detail column, null or empty for none.
+	*/
+	public void add(String[] keyValues, List<List<String>> details) throws IOException {
+		for (int k = 0; k < keys.length; k++) {
+			Column column = columns[k];
+			column.definition.write(keyValues[k] == null ? 0 : 1);
+			if (keyValues[k] != null) { bytes += plain(column.values, keyValues[k]); }
+			column.count++;
+		}
+		for (int a = 0; a < attributes.length; a++) {
+			Column column = columns[keys.length + a];
+			List<String> values = details.get(a);
+			if (values == null || values.isEmpty()) {
+				column.repetition.write(0);
+				column.definition.write(0);
+				column.count++;
+				continue;
+			}
+			for (int i = 0; i < values.size(); i++) {
+				column.repetition.write(i == 0 ? 0 : 1);
+				column.definition.write(1);
+				bytes += plain(column.values, values.get(i));
+				column.count++;
+			}
+		}
+		rows++;
+		if (rows >= ROW_GROUP_ROWS || bytes >= ROW_GROUP_BYTES) { writeRowGroup(); }
+	}
+
+	/** plain(ByteArrayOutputStream, String)
+	* PLAIN encode one string, its length as 4 bytes little endian then its UTF-8 bytes.
+	* return - int - the bytes written.
+	*/
+	static int plain(ByteArrayOutputStream to, String value) {
+		byte[] b = value.getBytes(StandardCharsets.UTF_8);
+		littleEndian(to, b.length);
+		to.write(b, 0, b.length);
+		return b.length + 4;
+	}
+
+	/** writeRowGroup()
+	* Write the rows held as a row group, one GZIP compressed data page per column.
+	*/
+	void writeRowGroup() throws IOException {
+		if (rows == 0) { return; }
+		long groupBytes = 0;
+		for (Column column : columns) {
+			ByteArrayOutputStream page = new ByteArrayOutputStream(column.values.size() + column.count / 4 + 16);
+			if (column.repeated) { levels(page, column.repetition.toByteArray()); }
+			levels(page, column.definition.toByteArray());
+			column.values.writeTo(page);
+
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(page.size() / 4 + 64);
+			GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+			page.writeTo(gzip);
+			gzip.close();
+
+			Thrift header = new Thrift();
+			header.i32(1, DATA_PAGE);
+			header.i32(2, page.size());
+			header.i32(3, compressed.size());
+			header.struct(5);
+			header.i32(1, column.count);
+			header.i32(2, PLAIN);
+			header.i32(3, RLE);
+			header.i32(4, RLE);
+			header.end();
+			header.end();
+
+			long offset = position;
+			write(header.toByteArray());
+			write(compressed.toByteArray());
+			long uncompressed = header.size() + page.size();
+			column.chunks.add(new long[] {offset, uncompressed, header.size() + compressed.size(), column.count});
+			groupBytes += uncompressed;
+
+			column.repetition.reset();
+			column.definition.reset();
+			column.values.reset();
+			column.count = 0;
+		}
+		rowGroups.add(new long[] {rows, groupBytes});
+		totalRows += rows;
+		rows = 0;
+		bytes = 0;
+	}
+
+	/** levels(ByteArrayOutputStream, byte[])
+	* Write the levels of a page with the RLE / bit packed hybrid encoding, as RLE runs only. The
+	* levels are 0 or 1 so each run is its length and one byte. It is preceded by its length.
+	*/
+	static void levels(ByteArrayOutputStream page, byte[] levels) {
+		ByteArrayOutputStream runs = new ByteArrayOutputStream();
+		int i = 0;
+		while (i < levels.length) {
+			int j = i;
+			while (j < levels.length && levels[j] == levels[i]) { j++; }
+			varint(runs, (long) (j - i) << 1);
+			runs.write(levels[i]);
+			i = j;
+		}
+		littleEndian(page, runs.size());
+		byte[] b = runs.toByteArray();
+		page.write(b, 0, b.length);
+	}
+
+	/** close()
+	* Write the last row group and the footer.
+	*/
+	public void close() throws IOException {
+		if (out == null) { return; }
+		try {
+			writeRowGroup();
+			byte[] footer = footer();
+			write(footer);
+			ByteArrayOutputStream length = new ByteArrayOutputStream(4);
+			littleEndian(length, footer.length);
+			write(length.toByteArray());
+			write(MAGIC);
+		} finally {
+			out.close();
+			out = null;
+		}
+	}
+
+	/** footer()
+	* The FileMetaData, the schema and where each column chunk of each row group is.
+	* return - byte[] - the metadata in the Thrift compact protocol.
+	*/
+	byte[] footer() {
+		Thrift t = new Thrift();
+		t.i32(1, 1);
+		// The schema is flattened depth first, the root then each field, a group is followed by its fields.
+		int elements = 1 + keys.length + (attributes.length > 0 ? 1 + attributes.length : 0);
+		t.list(2, Thrift.STRUCT, elements);
+		t.element();
+		t.string(4, "schema");
+		t.i32(5, keys.length + (attributes.length > 0 ? 1 : 0));
+		t.end();
+		for (String key : keys) { field(t, key, OPTIONAL); }
+		if (attributes.length > 0) {
+			t.element();
+			t.i32(3, REQUIRED);
+			t.string(4, "details");
+			t.i32(5, attributes.length);
+			t.end();
+			for (String attribute : attributes) { field(t, attribute, REPEATED); }
+		}
+		t.i64(3, totalRows);
+		t.list(4, Thrift.STRUCT, rowGroups.size());
+		for (int g = 0; g < rowGroups.size(); g++) {
+			t.element();
+			t.list(1, Thrift.STRUCT, columns.length);
+			for (Column column : columns) {
+				long[] chunk = column.chunks.get(g);
+				t.element();
+				t.i64(2, chunk[0]);
+				t.struct(3);
+				t.i32(1, BYTE_ARRAY);
+				t.list(2, Thrift.I32, 2);
+				t.value(PLAIN);
+				t.value(RLE);
+				t.list(3, Thrift.BINARY, column.path.length);
+				for (String name : column.path) { t.value(name); }
+				t.i32(4, GZIP);
+				t.i64(5, chunk[3]);
+				t.i64(6, chunk[1]);
+				t.i64(7, chunk[2]);
+				t.i64(9, chunk[0]);
+				t.end();
+				t.end();
+			}
+			t.i64(2, rowGroups.get(g)[1]);
+			t.i64(3, rowGroups.get(g)[0]);
+			t.end();
+		}
+		t.string(6, "datapower-gateway-inventory");
+		t.end();
+		return t.toByteArray();
+	}
+
+	/** field(Thrift, String, int)
+	* One UTF8 string field of the schema.
+	*/
+	static void field(Thrift t, String name, int repetition) {
+		t.element();
+		t.i32(1, BYTE_ARRAY);
+		t.i32(3, repetition);
+		t.string(4, name);
+		t.i32(6, UTF8);
+		t.end();
+	}
+
+	void write(byte[] b) throws IOException {
+		out.write(b);
+		position += b.length;
+	}
+
+	static void littleEndian(ByteArrayOutputStream to, int value) {
+		to.write(value);
+		to.write(value >>> 8);
+		to.write(value >>> 16);
+		to.write(value >>> 24);
+	}
+
+	static void varint(ByteArrayOutputStream to, long value) {
+		while ((value & ~0x7FL) != 0) {
+			to.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		to.write((int) value);
+	}
+
+	/** getPath()
+	* return - String - the name of the file being written.
+	*/
+	public String getPath() {
+		return path;
+	}
+
+	// Just enough of the Thrift compact protocol to write the page headers and the footer. Each
+	// struct ends with a stop byte and field ids are written as the change from the last one.
+	static class Thrift {
+		static final int I32 = 5, I64 = 6, BINARY = 8, LIST = 9, STRUCT = 12;
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int[] last = new int[16];
+		int depth = 0;
+
+		void field(int id, int type) {
+			int delta = id - last[depth];
+			if (delta > 0 && delta <= 15) {
+				out.write(delta << 4 | type);
+			} else {
+				out.write(type);
+				varint(out, (id << 1) ^ (id >> 31));
+			}
+			last[depth] = id;
+		}
+
+		void i32(int id, int value) { field(id, I32); value(value); }
+
+		void i64(int id, long value) { field(id, I64); varint(out, (value << 1) ^ (value >> 63)); }
+
+		void string(int id, String value) { field(id, BINARY); value(value); }
+
+		// A struct field, the fields that follow are in it until end().
+		void struct(int id) { field(id, STRUCT); last[++depth] = 0; }
+
+		// A struct in a list.
+		void element() { last[++depth] = 0; }
+
+		void end() { out.write(0); depth--; }
+
+		void list(int id, int type, int size) {
+			field(id, LIST);
+			if (size < 15) {
+				out.write(size << 4 | type);
+			} else {
+				out.write(0xF0 | type);
+				varint(out, size);
+			}
+		}
+
+		void value(int value) { varint(out, ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL); }
+
+		void value(String value) {
+			byte[] b = value.getBytes(StandardCharsets.UTF_8);
+			varint(out, b.length);
+			out.write(b, 0, b.length);
+		}
+
+		int size() { return out.size(); }
+
+		byte[] toByteArray() { return out.toByteArray(); }
+	}
+}
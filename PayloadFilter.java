@@ -0,0 +1,220 @@
+/**
+*   Module: PayloadFilter.java
+*
+*   Description: Drops the contents of the sections of a domain export.xml that never hold an
+*                object we look for, i.e. the <files> section where DataPower puts every local file
+*                of the domain base64 encoded. The bytes are skipped as they are read, before the
+*                xml parser sees them, so a domain with a GB of stylesheets and certificates costs
+*                the time to read it and a few KB of memory. The start and end tags are kept so the
+*                xml is still well formed, <files ...></files>. A > in a quoted attribute of the start
+*                tag does not end it, and a <files inside a comment, CDATA section or processing
+*                instruction is passed through like the rest of it.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.io.*;
+
+public class PayloadFilter extends FilterInputStream {
+	static final int NORMAL = 0;	// Passing bytes through, looking for the start of a section
+	static final int START_TAG = 1;	// Passing the start tag of a section through
+	static final int SKIPPING = 2;	// Dropping bytes, looking for the end tag of the section
+	static final int OPAQUE = 3;	// Passing a comment, CDATA section or processing instruction through
+
+	// What starts and ends the parts of the xml where a start tag is only text.
+	static final byte[][] OPENERS = {ascii("<!--"), ascii("<![CDATA["), ascii("<?")};
+	static final byte[][] CLOSERS = {ascii("-->"), ascii("]]>"), ascii("?>")};
+
+	byte[][] startTags;		// "<files" for each section
+	byte[][] endTags;		// "</files>" for each section
+	int[] matched;			// How much of each start tag has been seen
+	int state = NORMAL;
+	int section = -1;		// The section being skipped
+	int endMatched = 0;		// How much of its end tag has been seen
+	byte quote = 0;			// The quote of the attribute value the start tag is in, 0 when it is not
+	int[] opened = new int[OPENERS.length];	// How much of each opener has been seen
+	int opaque = -1;		// The opener that was seen
+	int closeMatched = 0;	// How much of its closer has been seen
+	byte previous = 0;
+	long skipped = 0;
+
+	byte[] buffer;
+	int pos = 0;
+	int limit = 0;
+	byte[] pending;			// An end tag waiting to be handed out
+	int pendingPos = 0;
+
+	/** PayloadFilter(InputStream, String[])
+	* param - in - the export.xml.
+	* param - sections - the names of the elements to drop the contents of, i.e. ConfigInventory.SKIP_LIST.
+	*/
+	public PayloadFilter(InputStream in, String[] sections) {
+		super(in);
+		startTags = new byte[sections.length][];
+		endTags = new byte[sections.length][];
+		for (int s = 0; s < sections.length; s++) {
+			startTags[s] = ascii("<"+sections[s]);
+			endTags[s] = ascii("</"+sections[s]+">");
+		}
+		matched = new int[sections.length];
+		buffer = new byte[Math.max(ConfigInventory.BUFFER_SIZE, 65536)];
+	}
+
+	public int read() throws IOException {
+		byte[] one = new byte[1];
+		return (read(one, 0, 1) < 0) ? -1 : one[0] & 0xff;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) { return 0; }
+		int out = off;
+		int end = off + len;
+		while (out < end) {
+			// An end tag that was matched while skipping goes out first.
+			if (pending != null) {
+				while (out < end && pendingPos < pending.length) { b[out++] = pending[pendingPos++]; }
+				if (pendingPos == pending.length) { pending = null; }
+				continue;
+			}
+			if (pos == limit) {
+				// Only block for more when nothing has been handed out yet.
+				if (out > off && in.available() <= 0) { break; }
+				limit = in.read(buffer, 0, buffer.length);
+				pos = 0;
+				if (limit <= 0) { limit = 0; break; }
+			}
+			if (state == SKIPPING && endMatched == 0) {
+				// Nothing but a '<' can start the end tag, so run to the next one.
+				int start = pos;
+				while (pos < limit && buffer[pos] != '<') { pos++; }
+				skipped += pos - start;
+				if (pos == limit) { continue; }
+			}
+			byte c = buffer[pos++];
+			if (state == SKIPPING) {
+				byte[] tag = endTags[section];
+				skipped++;
+				if (c == tag[endMatched]) {
+					if (++endMatched == tag.length) {
+						pending = tag;
+						pendingPos = 0;
+						skipped -= tag.length;
+						state = NORMAL;
+					}
+				} else {
+					endMatched = (c == '<') ? 1 : 0;
+				}
+				continue;
+			}
+			b[out++] = c;
+			if (state == START_TAG) {
+				if (quote != 0) {
+					if (c == quote) { quote = 0; }
+				} else if (c == '"' || c == '\'') {
+					quote = c;
+				} else if (c == '>') {
+					// <files/> has nothing in it to skip.
+					state = (previous == '/') ? NORMAL : SKIPPING;
+					endMatched = 0;
+				}
+			} else if (state == OPAQUE) {
+				closeMatched = advance(CLOSERS[opaque], closeMatched, c);
+				if (closeMatched == CLOSERS[opaque].length) { state = NORMAL; }
+			} else {
+				for (int s = 0; s < startTags.length; s++) {
+					if (matched[s] == startTags[s].length) {
+						// Only a whole name counts, <filesystem> is not <files>.
+						matched[s] = 0;
+						if (c == '>' || c == '/' || c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+							section = s;
+							state = (c == '>') ? SKIPPING : START_TAG;
+							endMatched = 0;
+							break;
+						}
+					}
+					if (c == startTags[s][matched[s]]) {
+						matched[s]++;
+					} else {
+						matched[s] = (c == '<') ? 1 : 0;
+					}
+				}
+				for (int o = 0; o < OPENERS.length && state == NORMAL; o++) {
+					opened[o] = advance(OPENERS[o], opened[o], c);
+					if (opened[o] == OPENERS[o].length) {
+						state = OPAQUE;
+						opaque = o;
+						closeMatched = 0;
+					}
+				}
+				if (state != NORMAL) {
+					for (int s = 0; s < matched.length; s++) { matched[s] = 0; }
+					for (int o = 0; o < opened.length; o++) { opened[o] = 0; }
+					quote = 0;
+				}
+			}
+			previous = c;
+		}
+		return (out == off) ? -1 : out - off;
+	}
+
+	public int available() throws IOException {
+		return (pending == null ? 0 : pending.length - pendingPos) + (state == SKIPPING ? 0 : limit - pos);
+	}
+
+	public boolean markSupported() {
+		return false;
+	}
+
+	public long skip(long n) throws IOException {
+		byte[] b = new byte[(int) Math.min(n, buffer.length)];
+		int read = read(b, 0, b.length);
+		return Math.max(read, 0);
+	}
+
+	/** getSkipped()
+	* return - long - the number of bytes dropped so far.
+	*/
+	public long getSkipped() {
+		return skipped;
+	}
+
+	/** advance(byte[], int, byte)
+	* How much of tag has been seen after one more byte. After a miss it is the longest end of what was
+	* seen that starts the tag, so the ]]]> at the end of a CDATA section still ends it.
+	* param - tag - the bytes being looked for.
+	* param - matched - how much of it had been seen.
+	* param - c - the byte.
+	* return - int - how much of it has been seen now.
+	*/
+	static int advance(byte[] tag, int matched, byte c) {
+		if (c == tag[matched]) { return matched + 1; }
+		for (int k = matched; k > 0; k--) {
+			// Is what was seen from matched - k + 1 on, then c, the first k + 1 bytes of the tag?
+			if (tag[k] != c) { continue; }
+			boolean same = true;
+			for (int i = 0; i < k && same; i++) { same = tag[i] == tag[matched - k + i]; }
+			if (same) { return k + 1; }
+		}
+		return (c == tag[0]) ? 1 : 0;
+	}
+
+	static byte[] ascii(String s) {
+		byte[] bytes = new byte[s.length()];
+		for (int i = 0; i < s.length(); i++) { bytes[i] = (byte) s.charAt(i); }
+		return bytes;
+	}
+}
@@ -0,0 +1,277 @@
+/**
+*   Module: RecordWriter.java
+*
+*   Description: Writes the inventory as flat records, one per (device, domain, type, name), instead
+*                of the hierarchical csv layout. Each record carries the appliance information and
+*                the inventory date so a year of nightly runs can be loaded into a query engine and
+*                filtered without any custom parsing. Three formats are written:
+*                   jsonl - JSON Lines, one object per gateway with the details in a "details" object
+*                           where every attribute is an array of strings, so the schema is the same
+*                           on every row no matter how many Front Side Handlers a gateway has.
+*                   flat  - csv with one column per detail attribute, repeated values are joined
+*                           with " | ". The header row is only written when the file is new, so
+*                           nightly runs can be added to the same file. When the file has other
+*                           columns, another catalog or no -d, a new file is started next to it.
+*                   parquet - a columnar Apache Parquet file, see ParquetWriter. It can not be added
+*                           to, so when the file is already there a new one is started next to it.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.io.*;
+import java.util.*;
+import java.text.SimpleDateFormat;
+
+public class RecordWriter implements InventoryListener, Closeable {
+	// The output format, "csv" is the normal hierarchical csv file, set with -format
+	public static String FORMAT = "csv";
+	public static final String[] FORMATS = {"csv", "flat", "jsonl", "parquet"};
+
+	static final String[] KEY_COLUMNS = {"Inventory Date", "Device", "Product ID", "Serial Number", "Firmware Version", "Domain", "Gateway Type", "Gateway Name"};
+	static final String[] KEY_FIELDS = {"inventoryDate", "device", "productId", "serialNumber", "firmwareVersion", "domain", "type", "name"};
+
+	String path;
+	String format;
+	String timeStamp;
+	String[] attributes;
+	CsvSink csv;
+	Writer json;
+	ParquetWriter parquet;
+
+	/** open(String, boolean)
+	* Open a flat record file in the current FORMAT.
+	* param - path - the output file, with -gzip ".gz" is added.
+	* param - append - true to add to the end of the file if it already exists.
+	* return - RecordWriter - the open file.
+	*/
+	public static RecordWriter open(String path, boolean append) throws IOException {
+		RecordWriter rw = new RecordWriter();
+		rw.format = FORMAT;
+		rw.path = outputPath(path);
+		rw.timeStamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new java.util.Date());
+		rw.attributes = attributes();
+		boolean isNew = !append || !new File(rw.path).exists() || new File(rw.path).length() == 0;
+		if (rw.format.equals("jsonl")) {
+			rw.json = CsvSink.openWriter(rw.path, append);
+		} else if (rw.format.equals("parquet")) {
+			for (int n = 2; !isNew; n++) {
+				rw.path = numbered(path, n);
+				isNew = !new File(rw.path).exists() || new File(rw.path).length() == 0;
+			}
+			rw.parquet = new ParquetWriter(rw.path, KEY_FIELDS, rw.attributes);
+		} else {
+			List<String> header = new ArrayList<String>(Arrays.asList(KEY_COLUMNS));
+			header.addAll(Arrays.asList(rw.attributes));
+			String[] columns = header.toArray(new String[header.size()]);
+			// Rows under another header would be in the wrong columns, they go to the first file next to
+			// it that has the same columns or is new.
+			String first = rw.path;
+			for (int n = 2; !isNew && !columns(columns).equals(firstLine(rw.path)); n++) {
+				rw.path = numbered(first, n);
+				isNew = !new File(rw.path).exists() || new File(rw.path).length() == 0;
+			}
+			if (!rw.path.equals(first)) { System.out.println(first+" has other columns than this run, the records are written to "+rw.path); }
+			rw.csv = CsvSink.open(rw.path, append);
+			if (isNew) { rw.csv.row(columns); }
+		}
+		return rw;
+	}
+
+	/** outputPath(String)
+	* The name a record file will really be written to, with -gzip ".gz" is added to a csv or jsonl
+	* file. A Parquet file compresses its own pages so it is left as it is.
+	*/
+	public static String outputPath(String path) {
+		return FORMAT.equals("parquet") ? path : CsvSink.outputPath(path);
+	}
+
+	/** extension()
+	* return - String - the file extension for the records in the current FORMAT.
+	*/
+	public static String extension() {
+		return FORMAT.equals("jsonl") ? ".jsonl" : FORMAT.equals("parquet") ? ".parquet" : ".csv";
+	}
+
+	/** numbered(String, int)
+	* return - String - path with -n before its extension, i.e. inventory-2.csv.gz.
+	*/
+	static String numbered(String path, int n) {
+		File file = new File(path);
+		String name = file.getName();
+		String gz = name.endsWith(".gz") ? ".gz" : "";
+		name = name.substring(0, name.length() - gz.length());
+		int dot = name.lastIndexOf('.');
+		String base = dot > 0 ? name.substring(0, dot) : name;
+		String extension = (dot > 0 ? name.substring(dot) : "") + gz;
+		return new File(file.getParentFile(), base+"-"+n+extension).getPath();
+	}
+
+	/** columns(String[])
+	* return - String - the header row as it is written to a flat file, without the line end.
+	*/
+	static String columns(String[] columns) {
+		StringBuilder sb = new StringBuilder();
+		for (int c = 0; c < columns.length; c++) {
+			if (c > 0) { sb.append(','); }
+			sb.append(CsvSink.quote(columns[c]));
+		}
+		return sb.toString();
+	}
+
+	/** firstLine(String)
+	* return - String - the first line of a flat file, gzip compressed when it ends in .gz.
+	*/
+	static String firstLine(String path) throws IOException {
+		InputStream in = new FileInputStream(path);
+		if (path.endsWith(".gz")) { in = new java.util.zip.GZIPInputStream(in); }
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		try {
+			return reader.readLine();
+		} finally {
+			reader.close();
+		}
+	}
+
+	/** attributes()
+	* The detail columns, the same for every record. They are the catalog attributes with the attributes
+	* of the object each reference names right after it, i.e. FrontProtocol, FrontProtocol.LocalAddress,
+	* FrontProtocol.LocalPort. Without the -d switch there are none.
+	* return - String[] - the attribute names.
+	*/
+	public static String[] attributes() {
+		if (!ConfigInventory.DETAILS) { return new String[0]; }
+		return Catalog.current().columns();
+	}
+
+	public void appliance(Appliance appliance) throws IOException {
+		// Everything about the appliance goes on each record.
+	}
+
+	/** domain(Appliance, String, List<Gateway>)
+	* Write one record for each gateway in the domain.
+	*/
+	public void domain(Appliance appliance, String domain, List<Gateway> gateways) throws IOException {
+		for (Gateway gateway : gateways) {
+			String[] keys = {timeStamp, appliance.deviceName, appliance.productId, appliance.serialNum, appliance.firmwareVer, domain, gateway.type, gateway.name};
+			Map<String, List<String>> values = values(gateway);
+			if (json != null) {
+				writeJson(keys, values);
+			} else if (parquet != null) {
+				List<List<String>> details = new ArrayList<List<String>>(attributes.length);
+				for (String attribute : attributes) { details.add(values.get(attribute)); }
+				parquet.add(keys, details);
+			} else {
+				String[] row = Arrays.copyOf(keys, keys.length + attributes.length);
+				for (int a = 0; a < attributes.length; a++) {
+					List<String> v = values.get(attributes[a]);
+					row[keys.length + a] = (v == null) ? "" : join(v);
+				}
+				csv.row(row);
+			}
+		}
+		flush();
+	}
+
+	/** writeJson(String[], Map)
+	* Write one JSON Lines record.
+	*/
+	void writeJson(String[] keys, Map<String, List<String>> values) throws IOException {
+		StringBuilder sb = new StringBuilder("{");
+		for (int k = 0; k < keys.length; k++) {
+			if (k > 0) { sb.append(','); }
+			quote(sb, KEY_FIELDS[k]).append(':');
+			quote(sb, keys[k]);
+		}
+		if (attributes.length > 0) {
+			sb.append(",\"details\":{");
+			for (int a = 0; a < attributes.length; a++) {
+				if (a > 0) { sb.append(','); }
+				quote(sb, attributes[a]).append(":[");
+				List<String> v = values.get(attributes[a]);
+				if (v != null) {
+					for (int i = 0; i < v.size(); i++) {
+						if (i > 0) { sb.append(','); }
+						quote(sb, v.get(i));
+					}
+				}
+				sb.append(']');
+			}
+			sb.append('}');
+		}
+		sb.append("}\n");
+		json.write(sb.toString());
+	}
+
+	/** values(Gateway)
+	* The details of a gateway by attribute, in the order they were found.
+	*/
+	static Map<String, List<String>> values(Gateway gateway) {
+		Map<String, List<String>> map = new HashMap<String, List<String>>();
+		for (String[] detail : gateway.details) {
+			List<String> list = map.get(detail[0]);
+			if (list == null) { list = new ArrayList<String>(); map.put(detail[0], list); }
+			list.add(detail[1]);
+		}
+		return map;
+	}
+
+	static String join(List<String> values) {
+		StringBuilder sb = new StringBuilder();
+		for (String v : values) {
+			if (sb.length() > 0) { sb.append(" | "); }
+			sb.append(v);
+		}
+		return sb.toString();
+	}
+
+	/** quote(StringBuilder, String)
+	* Add a string to the JSON being built, in quotes and escaped.
+	*/
+	static StringBuilder quote(StringBuilder sb, String value) {
+		if (value == null) { return sb.append("null"); }
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if (c < 0x20) { sb.append(String.format("\\u%04x", (int) c)); } else { sb.append(c); }
+			}
+		}
+		return sb.append('"');
+	}
+
+	public void flush() throws IOException {
+		// The parquet rows are written a row group at a time.
+		if (json != null) { json.flush(); } else if (csv != null) { csv.flush(); }
+	}
+
+	public void close() throws IOException {
+		if (json != null) { json.close(); } else if (parquet != null) { parquet.close(); } else { csv.close(); }
+	}
+
+	/** getPath()
+	* return - String - the name of the file being written.
+	*/
+	public String getPath() {
+		return path;
+	}
+}
@@ -0,0 +1,248 @@
+/**
+*   Module: SyntheticExport.java
+*
+*   Description: Build a synthetic DataPower appliance export zip that has the same layout as a
+*                real one. An export.xml in the root with the appliance details and the list of
+*                domains, and a <domain>.zip for each domain with its own export.xml inside.
+*                It is used to time ConfigInventory on exports far bigger than the demo appliance.
+*
+*   Usage: java SyntheticExport zipFile [domains] [gatewaysPerType] [detailDensity] [handlersPerGateway] [payloadKb]
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+public class SyntheticExport {
+	public static String DEVICE_NAME = "SYNTH-A";
+
+	// The port of the HTTPS handler that has the same name as a missing HTTP handler, see domainExport().
+	// It must never show up on a gateway.
+	public static final String STRAY_PORT = "9443";
+
+	// Namespace declarations DataPower puts on every named object, they make the objects a realistic size.
+	static String OBJECT_ATTRS = " xmlns:env=\"http://www.w3.org/2003/05/soap-envelope\" xmlns:dp=\"http://www.datapower.com/schemas/management\" intrinsic=\"false\" read-only=\"false\" local=\"true\"";
+
+	/** main()
+	*
+	* Write a synthetic export with the given shape.
+	*
+	*/
+	public static void main(String arg[]) throws Exception {
+		if (arg.length < 1) {
+			System.out.println("Usage: java SyntheticExport zipFile [domains] [gatewaysPerType] [detailDensity] [handlersPerGateway] [payloadKb]");
+			System.exit(0);
+		}
+		int domains = arg.length > 1 ? Integer.parseInt(arg[1]) : 200;
+		int gateways = arg.length > 2 ? Integer.parseInt(arg[2]) : 5;
+		int density = arg.length > 3 ? Integer.parseInt(arg[3]) : 20;
+		int handlers = arg.length > 4 ? Integer.parseInt(arg[4]) : 2;
+		int payloadKb = arg.length > 5 ? Integer.parseInt(arg[5]) : 64;
+		generate(new File(arg[0]), domains, gateways, density, handlers, payloadKb);
+		System.out.println("Done. The file "+arg[0]+" has been created");
+	}
+
+	/** generate(File, int, int, int, int, int)
+	* Write the whole appliance export.
+	* param - zip - the export zip file to create.
+	* param - domains - the number of application domains, "default" is always added as well.
+	* param - gateways - the number of gateways of each type in ConfigInventory.OBJECT_LIST per domain.
+	* param - density - the number of extra child elements written in every gateway.
+	* param - handlers - the number of front side handlers referenced from each gateway.
+	* param - payloadKb - the size of the base64 file embedded in the <files> section of each domain.
+	*/
+	public static void generate(File zip, int domains, int gateways, int density, int handlers, int payloadKb) throws IOException {
+		List<String> names = new ArrayList<String>();
+		names.add("default");
+		for (int d = 0; d < domains; d++) { names.add(String.format("domain_%04d", d)); }
+
+		ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zip), ConfigInventory.BUFFER_SIZE));
+		try {
+			zos.putNextEntry(new ZipEntry(ConfigInventory.EXPORT_XML));
+			zos.write(rootExport(names).getBytes("UTF-8"));
+			zos.closeEntry();
+
+			for (String name : names) {
+				zos.putNextEntry(new ZipEntry(name+".zip"));
+				domainZip(zos, name, gateways, density, handlers, payloadKb);
+				zos.closeEntry();
+			}
+		} finally {
+			zos.close();
+		}
+	}
+
+	/** rootExport(List<String>)
+	* Build the export.xml found in the root of the appliance export.
+	* param - names - the domain names.
+	* return - String - the xml.
+	*/
+	static String rootExport(List<String> names) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		sb.append("<datapower-configuration version=\"3\">\n");
+		sb.append(exportDetails("default"));
+		sb.append("<domains>\n");
+		for (String name : names) { sb.append("<domain name=\"").append(name).append("\"/>\n"); }
+		sb.append("</domains>\n");
+		sb.append("</datapower-configuration>\n");
+		return sb.toString();
+	}
+
+	/** exportDetails(String)
+	* Build the export-details section that starts every export.xml.
+	* param - domain - the domain the export was taken from.
+	* return - String - the xml.
+	*/
+	static String exportDetails(String domain) {
+		return "<export-details>\n"
+			+ "<description>Synthetic export</description>\n"
+			+ "<user>admin</user>\n"
+			+ "<domain>"+domain+"</domain>\n"
+			+ "<comment></comment>\n"
+			+ "<product-id>5725</product-id>\n"
+			+ "<product>IDG</product>\n"
+			+ "<model>IBM DataPower Gateway</model>\n"
+			+ "<device-name>"+DEVICE_NAME+"</device-name>\n"
+			+ "<serial-number>0000000</serial-number>\n"
+			+ "<firmware-version>IDG.7.2.0.1</firmware-version>\n"
+			+ "<display-version>7.2.0.1</display-version>\n"
+			+ "<current-date>2017-07-10</current-date>\n"
+			+ "<current-time>13:35:02 CDT</current-time>\n"
+			+ "</export-details>\n";
+	}
+
+	/** domainZip(OutputStream, String, int, int, int, int)
+	* Write the zip for one domain, with its export.xml and one local file. It is written straight to
+	* the stream so a domain with a payload of a GB or more does not have to fit in memory.
+	* param - out - where to write the zip, it is left open.
+	*/
+	static void domainZip(OutputStream out, String domain, int gateways, int density, int handlers, int payloadKb) throws IOException {
+		ZipOutputStream zos = new ZipOutputStream(new FilterOutputStream(out) {
+			public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); }
+			public void close() throws IOException { flush(); }
+		});
+		zos.putNextEntry(new ZipEntry("local/"));
+		zos.closeEntry();
+		zos.putNextEntry(new ZipEntry("local/synthetic.xsl"));
+		zos.write(payload(1).getBytes("UTF-8"));
+		zos.closeEntry();
+		zos.putNextEntry(new ZipEntry(ConfigInventory.EXPORT_XML));
+		Writer xml = new BufferedWriter(new OutputStreamWriter(zos, "UTF-8"), ConfigInventory.BUFFER_SIZE);
+		domainExport(xml, domain, gateways, density, handlers, payloadKb);
+		xml.flush();
+		zos.closeEntry();
+		zos.close();
+	}
+
+	/** domainExport(String, int, int, int, int)
+	* Build the export.xml for one domain.
+	* return - String - the xml.
+	*/
+	static String domainExport(String domain, int gateways, int density, int handlers, int payloadKb) {
+		StringWriter sw = new StringWriter();
+		try {
+			domainExport(sw, domain, gateways, density, handlers, payloadKb);
+		} catch (IOException ex) {
+			// A StringWriter does not throw.
+		}
+		return sw.toString();
+	}
+
+	/** domainExport(Writer, String, int, int, int, int)
+	* Write the export.xml for one domain, one gateway at a time.
+	*/
+	static void domainExport(Writer out, String domain, int gateways, int density, int handlers, int payloadKb) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		sb.append("<datapower-configuration version=\"3\">\n");
+		sb.append(exportDetails(domain));
+		sb.append("<configuration domain=\"").append(domain).append("\">\n");
+		sb.append("<XMLManager name=\"default\"").append(OBJECT_ATTRS).append(">\n<mAdminState>enabled</mAdminState>\n<CacheSize>256</CacheSize>\n</XMLManager>\n");
+
+		int port = 10000;
+		for (String type : ConfigInventory.OBJECT_LIST) {
+			for (int g = 0; g < gateways; g++) {
+				String name = type.toLowerCase()+"-"+g;
+				sb.append("<").append(type).append(" name=\"").append(name).append("\"").append(OBJECT_ATTRS).append(">\n");
+				sb.append("<mAdminState>enabled</mAdminState>\n");
+				sb.append("<UserSummary>synthetic ").append(type).append("</UserSummary>\n");
+				sb.append("<XMLManager class=\"XMLManager\">default</XMLManager>\n");
+				if (type.equals("WebAppFW") || type.equals("XMLFirewallService")) {
+					sb.append("<LocalAddress>0.0.0.0</LocalAddress>\n");
+					sb.append("<LocalPort>").append(port++).append("</LocalPort>\n");
+				} else {
+					for (int h = 0; h < handlers; h++) {
+						sb.append("<FrontProtocol class=\"HTTPSourceProtocolHandler\">").append(name).append(".HTTP.FSH.").append(h).append("</FrontProtocol>\n");
+					}
+					// The first gateway of each type also refers to an HTTP handler that is not in the domain.
+					if (g == 0) { sb.append("<FrontProtocol class=\"HTTPSourceProtocolHandler\">").append(name).append(".FSH.missing</FrontProtocol>\n"); }
+				}
+				sb.append("<BackendUrl>http://backend.example.com:8080/").append(domain).append("/").append(name).append("</BackendUrl>\n");
+				sb.append("<Type>static-backend</Type>\n");
+				for (int p = 0; p < density; p++) {
+					sb.append("<DebugHistory>").append(p).append("</DebugHistory>\n");
+				}
+				sb.append("</").append(type).append(">\n");
+
+				if (!(type.equals("WebAppFW") || type.equals("XMLFirewallService"))) {
+					for (int h = 0; h < handlers; h++) {
+						sb.append("<HTTPSourceProtocolHandler name=\"").append(name).append(".HTTP.FSH.").append(h).append("\"").append(OBJECT_ATTRS).append(">\n");
+						sb.append("<mAdminState>enabled</mAdminState>\n");
+						sb.append("<LocalAddress>0.0.0.0</LocalAddress>\n");
+						sb.append("<LocalPort>").append(port++).append("</LocalPort>\n");
+						sb.append("<HTTPVersion>HTTP/1.1</HTTPVersion>\n");
+						sb.append("</HTTPSourceProtocolHandler>\n");
+					}
+					// An HTTPS handler with the name of the missing HTTP one, it is not what the gateway refers to.
+					if (g == 0) {
+						sb.append("<HTTPSSourceProtocolHandler name=\"").append(name).append(".FSH.missing\"").append(OBJECT_ATTRS).append(">\n");
+						sb.append("<mAdminState>enabled</mAdminState>\n");
+						sb.append("<LocalAddress>10.9.9.9</LocalAddress>\n");
+						sb.append("<LocalPort>").append(STRAY_PORT).append("</LocalPort>\n");
+						sb.append("</HTTPSSourceProtocolHandler>\n");
+					}
+				}
+				out.append(sb);
+				sb.setLength(0);
+			}
+		}
+		sb.append("</configuration>\n");
+		sb.append("<files>\n");
+		sb.append("<file name=\"local:///synthetic.xsl\" src=\"local/synthetic.xsl\" location=\"local\" hash=\"AAAA\">");
+		out.append(sb);
+		// The payload is written a MB at a time.
+		for (int kb = payloadKb; kb > 0; kb -= 1024) { out.write(payload(Math.min(kb, 1024))); }
+		out.write("</file>\n");
+		out.write("</files>\n");
+		out.write("</datapower-configuration>\n");
+	}
+
+	/** payload(int)
+	* Build a base64 looking blob like the ones DataPower embeds for files in an export.
+	* param - kb - the size in kilobytes.
+	* return - String - the blob.
+	*/
+	static String payload(int kb) {
+		String line = "PHhzbDpzdHlsZXNoZWV0IHZlcnNpb249IjEuMCIgeG1sbnM6eHNsPSJodHRwOi8vd3d3LnczLm9y\n";
+		StringBuilder sb = new StringBuilder(kb * 1024 + line.length());
+		while (sb.length() < kb * 1024) { sb.append(line); }
+		return sb.toString();
+	}
+}
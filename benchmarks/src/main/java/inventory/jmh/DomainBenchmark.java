@@ -0,0 +1,66 @@
+/**
+*   Module: DomainBenchmark.java
+*
+*   Description: The per domain stages. Finding the gateways in one domain export.xml the old way
+*                (a DOM parse per OBJECT_LIST type) and with the single pass DomainParser, and getting
+*                the details of every gateway with the split() based getTag()/getTagValue().
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package inventory.jmh;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DomainBenchmark {
+
+	@Benchmark
+	public void getGateways(InventoryState state, Blackhole bh) throws Throwable {
+		for (String type : state.objectList) {
+			bh.consume((String[]) Inventory.GET_GATEWAYS.invokeExact(state.domainFile, type));
+		}
+	}
+
+	@Benchmark
+	public List<?> domainParser(InventoryState state) throws Throwable {
+		return (List<?>) Inventory.PARSE.invokeExact((InputStream) new ByteArrayInputStream(state.domainBytes),
+			state.objectList, state.objectDetails, state.referenceList, state.referenceDetails);
+	}
+
+	@Benchmark
+	public void getTag(InventoryState state, Blackhole bh) throws Throwable {
+		for (String[] gateway : state.gateways) {
+			String xml = (String) Inventory.GET_TAG.invokeExact(state.domainXml, gateway[0], gateway[1]);
+			for (String detail : state.objectDetails) { bh.consume((String) Inventory.GET_TAG_VALUE.invokeExact(xml, detail)); }
+		}
+	}
+
+	@Benchmark
+	public String getTagValue(InventoryState state) throws Throwable {
+		return (String) Inventory.GET_TAG_VALUE.invokeExact(state.rootXml, "firmware-version");
+	}
+}
@@ -0,0 +1,89 @@
+/**
+*   Module: ExportBenchmark.java
+*
+*   Description: The whole export stages. Extracting the export with unZipIt(), reading the domain
+*                list with getDomains(), and a full createInventory() in each of its modes. These are
+*                the numbers to size a batch window with.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package inventory.jmh;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ExportBenchmark {
+
+	// The settings for createInventory(), and a clean output and extract directory for each call.
+	@State(Scope.Thread)
+	public static class Run {
+		@Param({"false", "true"})
+		public boolean details;
+
+		@Param({"1", "4"})
+		public int threads;
+
+		public String tmp;
+		public File csv;
+
+		@Setup(Level.Invocation)
+		public void setUp(InventoryState state) {
+			tmp = new File(state.work, "run").getAbsolutePath()+"/";
+			csv = new File(state.work, "run.csv");
+			Inventory.set("tmpDir", tmp);
+			Inventory.set("csvFile", csv.getAbsolutePath());
+			Inventory.set("DETAILS", details);
+			Inventory.set("THREADS", threads);
+		}
+
+		@TearDown(Level.Invocation)
+		public void tearDown() throws Throwable {
+			csv.delete();
+			if (new File(tmp).exists()) { Inventory.REMOVE_TMP_DIR.invokeExact(tmp); }
+		}
+	}
+
+	@Benchmark
+	public void unZipIt(InventoryState state, Run run) throws Throwable {
+		Inventory.UNZIP_IT.invokeExact(state.zip.getAbsolutePath(), run.tmp);
+	}
+
+	@Benchmark
+	public String[] getDomains(InventoryState state) throws Throwable {
+		return (String[]) Inventory.GET_DOMAINS.invokeExact(state.domainsXml);
+	}
+
+	@Benchmark
+	public String createInventoryExtract(InventoryState state, Run run) throws Throwable {
+		Inventory.set("STREAM", false);
+		return (String) Inventory.CREATE_INVENTORY.invokeExact();
+	}
+
+	@Benchmark
+	public String createInventoryStream(InventoryState state, Run run) throws Throwable {
+		Inventory.set("STREAM", true);
+		return (String) Inventory.CREATE_INVENTORY.invokeExact();
+	}
+}
@@ -0,0 +1,92 @@
+/**
+*   Module: Inventory.java
+*
+*   Description: The inventory classes are in the default package. A class in a package cannot name
+*                them, and JMH will not generate a benchmark in the default package, so the methods
+*                the benchmarks call are looked up here once as MethodHandles. A static final
+*                MethodHandle is inlined by the JIT, so calling through one costs next to nothing.
+*                The handles are looked up when the class is loaded, a method that was renamed or has
+*                other arguments fails every benchmark at once with its name in the message.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package inventory.jmh;
+
+import java.io.*;
+import java.lang.invoke.*;
+import java.util.*;
+
+final class Inventory {
+	static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	// SyntheticExport
+	static final MethodHandle GENERATE = method("SyntheticExport", "generate", void.class, File.class, int.class, int.class, int.class, int.class, int.class);
+
+	// ConfigInventory
+	static final MethodHandle UNZIP_IT = method("ConfigInventory", "unZipIt", void.class, String.class, String.class);
+	static final MethodHandle REMOVE_TMP_DIR = method("ConfigInventory", "removeTmpDir", void.class, String.class);
+	static final MethodHandle GET_DOMAINS = method("ConfigInventory", "getDomains", String[].class, String.class);
+	static final MethodHandle GET_GATEWAYS = method("ConfigInventory", "getGateways", String[].class, File.class, String.class);
+	static final MethodHandle GET_TAG = method("ConfigInventory", "getTag", String.class, String.class, String.class, String.class);
+	static final MethodHandle GET_TAG_VALUE = method("ConfigInventory", "getTagValue", String.class, String.class, String.class);
+	static final MethodHandle CREATE_INVENTORY = method("ConfigInventory", "createInventory", String.class);
+
+	// DomainParser, the return type is a List<Gateway> which is fine to handle as a List.
+	static final MethodHandle PARSE = method("DomainParser", "parse", List.class, InputStream.class, String[].class, String[].class, String[].class, String[].class);
+
+	/** set(String, Object)
+	* Set one of the static settings of ConfigInventory, i.e. "STREAM" or "csvFile".
+	*/
+	static void set(String field, Object value) {
+		try {
+			type("ConfigInventory").getField(field).set(null, value);
+		} catch (ReflectiveOperationException ex) {
+			throw new IllegalStateException("ConfigInventory."+field+" could not be set", ex);
+		}
+	}
+
+	/** get(String)
+	* Get one of the static settings of ConfigInventory, i.e. "OBJECT_LIST".
+	*/
+	static Object get(String field) {
+		try {
+			return type("ConfigInventory").getField(field).get(null);
+		} catch (ReflectiveOperationException ex) {
+			throw new IllegalStateException("ConfigInventory."+field+" could not be read", ex);
+		}
+	}
+
+	static MethodHandle method(String className, String name, Class<?> returnType, Class<?>... params) {
+		try {
+			return LOOKUP.findStatic(type(className), name, MethodType.methodType(returnType, params));
+		} catch (ReflectiveOperationException ex) {
+			throw new IllegalStateException(className+"."+name+" was not found", ex);
+		}
+	}
+
+	static Class<?> type(String className) {
+		try {
+			return Class.forName(className);
+		} catch (ClassNotFoundException ex) {
+			throw new IllegalStateException(className+" is not on the class path, run mvn install in the project root first", ex);
+		}
+	}
+
+	private Inventory() {
+	}
+}
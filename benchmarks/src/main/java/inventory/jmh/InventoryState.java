@@ -0,0 +1,98 @@
+/**
+*   Module: InventoryState.java
+*
+*   Description: The synthetic appliance export the benchmarks run against. It is built once per
+*                trial with SyntheticExport, and one domain of it is kept in memory for the
+*                benchmarks that work on a single domain export.xml.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package inventory.jmh;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+public class InventoryState {
+	// The shape of the synthetic export.
+	@Param({"20"})
+	public int domains;
+
+	@Param({"10", "100"})
+	public int gatewaysPerType;
+
+	@Param({"20"})
+	public int detailDensity;
+
+	public int handlersPerGateway = 2;
+	public int payloadKb = 64;
+
+	public File work;
+	public File zip;
+	public String rootXml;
+	public String domainsXml;
+	public File domainFile;
+	public byte[] domainBytes;
+	public String domainXml;
+	public String[] objectList;
+	public String[] objectDetails;
+	public String[] referenceList;
+	public String[] referenceDetails;
+
+	// Every {type, name} of the gateways in the one domain.
+	public String[][] gateways;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Throwable {
+		work = Files.createTempDirectory("inventory-jmh").toFile();
+		zip = new File(work, "synthetic.zip");
+		Inventory.GENERATE.invokeExact(zip, domains, gatewaysPerType, detailDensity, handlersPerGateway, payloadKb);
+
+		// Extract it once to get at the root export.xml and one domain export.xml.
+		String tmp = new File(work, "extract").getAbsolutePath()+"/";
+		Inventory.UNZIP_IT.invokeExact(zip.getAbsolutePath(), tmp);
+		rootXml = new String(Files.readAllBytes(Paths.get(tmp, "export.xml")), "UTF-8");
+		domainsXml = (String) Inventory.GET_TAG_VALUE.invokeExact(rootXml, "domains");
+		Inventory.UNZIP_IT.invokeExact(tmp+"default.zip", tmp+"default/");
+		domainFile = new File(tmp+"default/export.xml");
+		domainBytes = Files.readAllBytes(domainFile.toPath());
+		domainXml = new String(domainBytes, "UTF-8");
+
+		objectList = (String[]) Inventory.get("OBJECT_LIST");
+		objectDetails = (String[]) Inventory.get("OBJECT_DETAILS");
+		referenceList = (String[]) Inventory.get("REFERENCE_LIST");
+		referenceDetails = (String[]) Inventory.get("REFERENCE_DETAILS");
+
+		List<String[]> list = new ArrayList<String[]>();
+		for (String type : objectList) {
+			for (String name : (String[]) Inventory.GET_GATEWAYS.invokeExact(domainFile, type)) { list.add(new String[] {type, name}); }
+		}
+		gateways = list.toArray(new String[list.size()][]);
+
+		Inventory.set("DEBUG", false);
+		Inventory.set("zipFile", zip.getAbsolutePath());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Throwable {
+		Inventory.REMOVE_TMP_DIR.invokeExact(work.getAbsolutePath());
+	}
+}
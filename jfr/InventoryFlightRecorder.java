@@ -0,0 +1,106 @@
+/**
+*   Module: InventoryFlightRecorder.java
+*
+*   Description: The Java Flight Recorder events of an inventory run, see InventoryEvents. There is
+*                a datapower.inventory.Domain event for each domain worked on and a
+*                datapower.inventory.Stage event for each stage of it. jdk.jfr is only in Java 11
+*                and later and the rest of the tool still builds and runs on Java 8, so this is the
+*                only class that uses it and it is compiled on its own, after the classes in the root:
+*                   javac -d . jfr/*.java
+*                mvn package does that when it is run on Java 11 or later.
+*
+*   Copyright (C) 2017  Paul Ray Wilson
+*
+*   This program is free software: you can redistribute it and/or modify
+*   it under the terms of the GNU General Public License as published by
+*   the Free Software Foundation, either version 3 of the License, or
+*   (at your option) any later version.
+*
+*   This program is distributed in the hope that it will be useful,
+*   but WITHOUT ANY WARRANTY; without even the implied warranty of
+*   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*   GNU General Public License for more details.
+*
+*   You should have received a copy of the GNU General Public License
+*   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import jdk.jfr.*;
+
+public class InventoryFlightRecorder implements InventoryEvents.Recorder {
+
+	@Name("datapower.inventory.Domain")
+	@Label("Inventory Domain")
+	@Category({"DataPower", "Inventory"})
+	@Description("One domain of an appliance export")
+	static class DomainEvent extends Event {
+		@Label("Device") String device;
+		@Label("Domain") String domain;
+		@Label("Zip Size") @DataAmount long zipBytes;
+		@Label("Xml Size") @DataAmount long xmlBytes;
+		@Label("Gateways") int objects;
+		@Label("Details") int details;
+		@Label("Allocated") @DataAmount long allocated;
+	}
+
+	@Name("datapower.inventory.Stage")
+	@Label("Inventory Stage")
+	@Category({"DataPower", "Inventory"})
+	@Description("One stage of an appliance export: unzip, decompress, parse, lookup or write")
+	static class StageEvent extends Event {
+		@Label("Device") String device;
+		@Label("Domain") String domain;
+		@Label("Stage") String stage;
+	}
+
+	/** begin()
+	* Start a stage event.
+	* return - Object - the started event.
+	*/
+	public Object begin() {
+		StageEvent event = new StageEvent();
+		event.begin();
+		return event;
+	}
+
+	/** beginDomain()
+	* Start a domain event.
+	* return - Object - the started event.
+	*/
+	public Object beginDomain() {
+		DomainEvent event = new DomainEvent();
+		event.begin();
+		return event;
+	}
+
+	/** commit(Object, InventoryMetrics.Export, InventoryMetrics.Domain, String)
+	* Record a stage event.
+	*/
+	public void commit(Object started, InventoryMetrics.Export export, InventoryMetrics.Domain domain, String stage) {
+		StageEvent event = (StageEvent) started;
+		event.end();
+		if (!event.shouldCommit()) { return; }
+		event.device = export.device;
+		event.domain = (domain == null) ? null : domain.name;
+		event.stage = stage;
+		event.commit();
+	}
+
+	/** commit(Object, InventoryMetrics.Domain)
+	* Record a domain event once the domain is done.
+	*/
+	public void commit(Object started, InventoryMetrics.Domain domain) {
+		DomainEvent event = (DomainEvent) started;
+		event.end();
+		if (!event.shouldCommit()) { return; }
+		event.device = domain.export.device;
+		event.domain = domain.name;
+		event.zipBytes = domain.zipBytes;
+		event.xmlBytes = domain.xmlBytes;
+		event.objects = domain.objects;
+		event.details = domain.details;
+		event.allocated = domain.allocated;
+		event.commit();
+	}
+}